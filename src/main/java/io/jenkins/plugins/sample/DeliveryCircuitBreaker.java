@@ -0,0 +1,87 @@
+package io.jenkins.plugins.sample;
+
+/**
+ * Circuit breaker guarding the reporting endpoint.
+ *
+ * After {@code failureThreshold} consecutive failures the circuit opens and requests are
+ * short-circuited for {@code openMillis}. Once that period elapses a single probe request
+ * is let through (half-open); its outcome either closes the circuit or opens it again.
+ */
+final class DeliveryCircuitBreaker {
+
+    enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final int failureThreshold;
+    private final long openMillis;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private long timesOpened;
+
+    DeliveryCircuitBreaker(int failureThreshold, long openMillis) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openMillis = Math.max(0, openMillis);
+    }
+
+    /**
+     * Whether a request may be sent now. Moves an expired open circuit to half-open and
+     * hands out the single probe permit.
+     */
+    synchronized boolean allowRequest(long nowMillis) {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (nowMillis - openedAt >= openMillis) {
+                    state = State.HALF_OPEN;
+                    return true;
+                }
+                return false;
+            case HALF_OPEN:
+            default:
+                // The probe is still in flight
+                return false;
+        }
+    }
+
+    synchronized void recordSuccess() {
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+    }
+
+    /**
+     * Records a failed request.
+     *
+     * @return {@code true} if this failure opened the circuit
+     */
+    synchronized boolean recordFailure(long nowMillis) {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+            state = State.OPEN;
+            openedAt = nowMillis;
+            timesOpened++;
+            return true;
+        }
+        return false;
+    }
+
+    synchronized State getState() {
+        return state;
+    }
+
+    synchronized boolean isClosed() {
+        return state == State.CLOSED;
+    }
+
+    synchronized String describe(long nowMillis) {
+        StringBuilder sb = new StringBuilder("Circuit: ").append(state);
+        if (state == State.OPEN) {
+            long remaining = Math.max(0, openMillis - (nowMillis - openedAt));
+            sb.append(" (next probe in ").append(remaining / 1000).append("s)");
+        }
+        sb.append(", consecutive failures: ").append(consecutiveFailures);
+        sb.append(", times opened: ").append(timesOpened);
+        return sb.toString();
+    }
+}
@@ -0,0 +1,113 @@
+package io.jenkins.plugins.sample;
+
+import hudson.model.Api;
+import hudson.model.Run;
+import jenkins.model.RunAction2;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Stage metrics computed for one run.
+ *
+ * Only a marker is stored in {@code build.xml}; the stages themselves live in
+ * {@value StageMetricsSummary#FILE_NAME} in the build directory and are read on first use,
+ * so build pages and API queries never walk the flow graph again.
+ */
+@ExportedBean
+public class StageMetricsAction implements RunAction2 {
+    private static final Logger LOGGER = Logger.getLogger(StageMetricsAction.class.getName());
+
+    private transient Run<?, ?> run;
+    private transient volatile SoftReference<StageMetricsSummary> summary;
+
+    StageMetricsAction(StageMetricsSummary summary) {
+        this.summary = new SoftReference<>(summary);
+    }
+
+    /**
+     * Writes the summary next to {@code build.xml} and attaches (or replaces) the action on the run.
+     */
+    static StageMetricsAction attach(Run<?, ?> run, StageMetricsSummary summary) throws IOException {
+        summary.write(new File(run.getRootDir(), StageMetricsSummary.FILE_NAME));
+        StageMetricsAction action = new StageMetricsAction(summary);
+        run.replaceAction(action);
+        run.save();
+        StageSummaryCache.get().put(run.getParent().getFullName(), run.getNumber(), summary);
+        return action;
+    }
+
+    @Override
+    public void onAttached(Run<?, ?> r) {
+        this.run = r;
+    }
+
+    @Override
+    public void onLoad(Run<?, ?> r) {
+        this.run = r;
+    }
+
+    public Run<?, ?> getRun() {
+        return run;
+    }
+
+    /**
+     * The stage summary, loaded from disk the first time it is needed.
+     *
+     * @return the summary, or {@code null} if the file is missing or unreadable
+     */
+    public StageMetricsSummary getSummary() {
+        SoftReference<StageMetricsSummary> ref = summary;
+        StageMetricsSummary s = ref != null ? ref.get() : null;
+        if (s == null && run != null) {
+            File file = new File(run.getRootDir(), StageMetricsSummary.FILE_NAME);
+            if (file.isFile()) {
+                try {
+                    s = StageMetricsSummary.read(file);
+                    summary = new SoftReference<>(s);
+                } catch (IOException | RuntimeException e) {
+                    LOGGER.log(Level.WARNING, "Failed to read stage metrics for " + run, e);
+                }
+            }
+        }
+        return s;
+    }
+
+    @Exported(visibility = 2)
+    public String getBuildTool() {
+        StageMetricsSummary s = getSummary();
+        return s != null ? s.getBuildTool() : null;
+    }
+
+    @Exported(visibility = 2)
+    public List<StageMetricsSummary.Stage> getStages() {
+        StageMetricsSummary s = getSummary();
+        return s != null ? s.getStages() : Collections.emptyList();
+    }
+
+    public Api getApi() {
+        return new Api(this);
+    }
+
+    @Override
+    public String getIconFileName() {
+        return "clock.png";
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "Stage Metrics";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "stage-metrics";
+    }
+}
@@ -1,25 +1,49 @@
 package io.jenkins.plugins.sample;
 
 import hudson.Extension;
+import hudson.init.Terminator;
 import hudson.util.FormValidation;
+import hudson.util.Secret;
 import jenkins.model.GlobalConfiguration;
+import jenkins.model.Jenkins;
 import net.sf.json.JSONObject;
 import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.StaplerRequest;
 
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
 import javax.servlet.ServletException;
 import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.security.cert.X509Certificate;
+import java.util.Base64;
+import java.util.Objects;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Example of Jenkins global configuration.
  */
 @Extension
 public class StageMetricsConfiguration extends GlobalConfiguration {
+    private static final Logger LOGGER = Logger.getLogger(StageMetricsConfiguration.class.getName());
+
+    /**
+     * Settings as of the last {@link #save} or {@link #load}, read by delivery without an extension lookup.
+     * {@code null} until this Jenkins instance has published any.
+     */
+    private static volatile Snapshot snapshot;
 
     private String endpointUrl;
     private String username;
-    private String password;
+    private Secret password;
     private boolean trustSelfSigned;
     private String controllerName;
     private String lastError = "";
@@ -32,19 +56,75 @@ public class StageMetricsConfiguration extends GlobalConfiguration {
         return GlobalConfiguration.all().get(StageMetricsConfiguration.class);
     }
 
+    /**
+     * The current immutable view of the delivery settings.
+     */
+    static Snapshot snapshot() {
+        Snapshot current = snapshot;
+        if (current == null && Jenkins.getInstanceOrNull() != null) {
+            // Nothing published yet; looking the descriptor up constructs it if needed, which loads the settings
+            StageMetricsConfiguration config = get();
+            if (config != null) {
+                current = config.ensurePublished();
+            }
+        }
+        return current != null ? current : Snapshot.EMPTY;
+    }
+
+    private synchronized Snapshot ensurePublished() {
+        if (snapshot == null) {
+            publishSnapshot();
+        }
+        return snapshot;
+    }
+
+    @Terminator
+    public static void forgetSnapshot() {
+        snapshot = null;
+    }
+
     @Override
-    public boolean configure(StaplerRequest req, JSONObject formData) throws FormException {
+    public synchronized void load() {
+        super.load();
+        publishSnapshot();
+    }
+
+    /**
+     * Publishes the settings too, so changes made through the setters (configuration as code,
+     * the script console) take effect without going through the form.
+     */
+    @Override
+    public synchronized void save() {
+        super.save();
+        publishSnapshot();
+    }
+
+    /**
+     * Binds and saves under the same lock as {@link #save}, so a save triggered from a delivery
+     * thread never publishes a mix of old and new settings.
+     */
+    @Override
+    public synchronized boolean configure(StaplerRequest req, JSONObject formData) throws FormException {
         req.bindJSON(this, formData);
         save();
         return super.configure(req, formData);
     }
 
+    private void publishSnapshot() {
+        String plainPassword = Secret.toString(password);
+        Snapshot current = snapshot;
+        // lastError updates save often; only rebuild when a delivery setting actually changed
+        if (current == null || !current.hasSettings(endpointUrl, username, plainPassword, trustSelfSigned, controllerName)) {
+            snapshot = new Snapshot(endpointUrl, username, plainPassword, trustSelfSigned, controllerName);
+        }
+    }
+
     public String getEndpointUrl() {
         return endpointUrl;
     }
 
     @DataBoundSetter
-    public void setEndpointUrl(String endpointUrl) {
+    public synchronized void setEndpointUrl(String endpointUrl) {
         this.endpointUrl = endpointUrl;
     }
 
@@ -53,16 +133,16 @@ public class StageMetricsConfiguration extends GlobalConfiguration {
     }
 
     @DataBoundSetter
-    public void setUsername(String username) {
+    public synchronized void setUsername(String username) {
         this.username = username;
     }
 
-    public String getPassword() {
+    public Secret getPassword() {
         return password;
     }
 
     @DataBoundSetter
-    public void setPassword(String password) {
+    public synchronized void setPassword(Secret password) {
         this.password = password;
     }
 
@@ -71,7 +151,7 @@ public class StageMetricsConfiguration extends GlobalConfiguration {
     }
 
     @DataBoundSetter
-    public void setTrustSelfSigned(boolean trustSelfSigned) {
+    public synchronized void setTrustSelfSigned(boolean trustSelfSigned) {
         this.trustSelfSigned = trustSelfSigned;
     }
 
@@ -80,7 +160,7 @@ public class StageMetricsConfiguration extends GlobalConfiguration {
     }
 
     @DataBoundSetter
-    public void setControllerName(String controllerName) {
+    public synchronized void setControllerName(String controllerName) {
         this.controllerName = controllerName;
     }
 
@@ -88,17 +168,24 @@ public class StageMetricsConfiguration extends GlobalConfiguration {
         return lastError != null ? lastError : "";
     }
 
-    public void setLastError(String lastError) {
+    /**
+     * Circuit breaker state and delivery counters, shown next to the last error.
+     */
+    public String getDeliveryStatus() {
+        return StageMetricsDelivery.get().describe();
+    }
+
+    public synchronized void setLastError(String lastError) {
         this.lastError = lastError != null ? lastError : "";
         save();
     }
 
-    public void clearLastError() {
+    public synchronized void clearLastError() {
         this.lastError = "";
         save();
     }
 
-    public void appendToLastError(String message) {
+    public synchronized void appendToLastError(String message) {
         if (this.lastError == null) {
             this.lastError = "";
         }
@@ -135,4 +222,95 @@ public class StageMetricsConfiguration extends GlobalConfiguration {
             return FormValidation.warning("Controller name is optional but recommended for identifying different Jenkins instances");
         return FormValidation.ok();
     }
-}
\ No newline at end of file
+
+    /**
+     * Immutable copy of the delivery settings with everything a request needs precomputed:
+     * the parsed endpoint, the Basic auth header and, when self-signed certificates are
+     * trusted, a dedicated socket factory.
+     */
+    static final class Snapshot {
+        static final Snapshot EMPTY = new Snapshot(null, null, null, false, null);
+
+        final String endpointUrl;
+        final URI endpointUri;
+        final String authorizationHeader;
+        final boolean trustSelfSigned;
+        final SSLSocketFactory sslSocketFactory;
+        final String controllerName;
+
+        Snapshot(String endpointUrl, String username, String password, boolean trustSelfSigned, String controllerName) {
+            this.endpointUrl = endpointUrl;
+            this.endpointUri = parse(endpointUrl);
+            this.authorizationHeader = basicAuth(username, password);
+            this.trustSelfSigned = trustSelfSigned;
+            this.sslSocketFactory = trustSelfSigned ? trustAllSocketFactory() : null;
+            this.controllerName = defaultControllerName(controllerName);
+        }
+
+        /**
+         * Whether this snapshot was built from the given settings.
+         */
+        boolean hasSettings(String endpointUrl, String username, String password, boolean trustSelfSigned,
+                            String controllerName) {
+            return this != EMPTY
+                    && Objects.equals(this.endpointUrl, endpointUrl)
+                    && this.trustSelfSigned == trustSelfSigned
+                    && this.controllerName.equals(defaultControllerName(controllerName))
+                    && this.authorizationHeader.equals(basicAuth(username, password));
+        }
+
+        private static String basicAuth(String username, String password) {
+            return "Basic " + Base64.getEncoder().encodeToString(
+                    (username + ":" + password).getBytes(StandardCharsets.UTF_8));
+        }
+
+        private static String defaultControllerName(String controllerName) {
+            return controllerName == null || controllerName.trim().isEmpty() ? "jenkins-controller" : controllerName;
+        }
+
+        /**
+         * Whether the endpoint is an absolute {@code http} or {@code https} URL that delivery can use.
+         */
+        boolean isConfigured() {
+            if (endpointUri == null) {
+                return false;
+            }
+            String scheme = endpointUri.getScheme();
+            return "http".equalsIgnoreCase(scheme) || "https".equalsIgnoreCase(scheme);
+        }
+
+        private static URI parse(String endpointUrl) {
+            if (endpointUrl == null || endpointUrl.isEmpty()) {
+                return null;
+            }
+            try {
+                String trimmed = endpointUrl.trim();
+                while (trimmed.endsWith("/")) {
+                    trimmed = trimmed.substring(0, trimmed.length() - 1);
+                }
+                return new URI(trimmed);
+            } catch (URISyntaxException e) {
+                LOGGER.log(Level.WARNING, "Invalid stage metrics endpoint URL: " + endpointUrl, e);
+                return null;
+            }
+        }
+
+        private static SSLSocketFactory trustAllSocketFactory() {
+            TrustManager[] trustAllCerts = new TrustManager[]{
+                    new X509TrustManager() {
+                        public X509Certificate[] getAcceptedIssuers() { return new X509Certificate[0]; }
+                        public void checkClientTrusted(X509Certificate[] certs, String authType) {}
+                        public void checkServerTrusted(X509Certificate[] certs, String authType) {}
+                    }
+            };
+            try {
+                SSLContext sc = SSLContext.getInstance("TLS");
+                sc.init(null, trustAllCerts, new SecureRandom());
+                return sc.getSocketFactory();
+            } catch (GeneralSecurityException e) {
+                LOGGER.log(Level.WARNING, "Failed to initialize SSL context for self-signed certificates", e);
+                return null;
+            }
+        }
+    }
+}
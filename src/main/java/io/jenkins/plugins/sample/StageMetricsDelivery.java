@@ -0,0 +1,380 @@
+package io.jenkins.plugins.sample;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.init.Terminator;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.net.ssl.HttpsURLConnection;
+
+/**
+ * Sends stage metrics to the reporting endpoint.
+ *
+ * Requests run on a small fixed pool with a bounded backlog, so an outage on the analytics
+ * side cannot grow the number of controller threads. Each request has connect/read timeouts,
+ * transient failures (I/O errors, 408, 429 and 5xx) are retried with jittered exponential
+ * backoff, and a {@link DeliveryCircuitBreaker} stops traffic to an endpoint that keeps failing.
+ * Other 4xx responses mean the request itself is wrong and are never retried. Anything else
+ * (a redirect, or a response that is not valid HTTP) counts against the breaker but is not
+ * retried, since sending the same request again would get the same answer.
+ *
+ * One instance exists per Jenkins instance; its pool is shut down when Jenkins stops, so
+ * breaker state and queued retries never outlive the controller they belong to.
+ */
+@Extension
+public final class StageMetricsDelivery {
+    private static final Logger LOGGER = Logger.getLogger(StageMetricsDelivery.class.getName());
+
+    private static final String PROPERTY_PREFIX = StageMetricsDelivery.class.getName() + ".";
+    static final int POOL_SIZE = Integer.getInteger(PROPERTY_PREFIX + "poolSize", 4);
+    static final int MAX_PENDING = Integer.getInteger(PROPERTY_PREFIX + "maxPending", 10_000);
+    static final int CONNECT_TIMEOUT_MILLIS = Integer.getInteger(PROPERTY_PREFIX + "connectTimeoutMillis", 10_000);
+    static final int READ_TIMEOUT_MILLIS = Integer.getInteger(PROPERTY_PREFIX + "readTimeoutMillis", 30_000);
+    static final int MAX_ATTEMPTS = Integer.getInteger(PROPERTY_PREFIX + "maxAttempts", 4);
+    static final long BASE_BACKOFF_MILLIS = Long.getLong(PROPERTY_PREFIX + "baseBackoffMillis", 500L);
+    static final long MAX_BACKOFF_MILLIS = Long.getLong(PROPERTY_PREFIX + "maxBackoffMillis", 30_000L);
+    static final int BREAKER_FAILURE_THRESHOLD = Integer.getInteger(PROPERTY_PREFIX + "breakerFailureThreshold", 5);
+    static final long BREAKER_OPEN_MILLIS = Long.getLong(PROPERTY_PREFIX + "breakerOpenMillis", 30_000L);
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /**
+     * Sends one payload and returns the endpoint's answer. Replaceable in tests.
+     */
+    interface Transport {
+        Response send(Map<String, Object> payloadData, StageMetricsConfiguration.Snapshot config) throws IOException;
+    }
+
+    private final ScheduledThreadPoolExecutor executor;
+    private final DeliveryCircuitBreaker breaker;
+    private final int maxPending;
+    private final int maxAttempts;
+    private final long baseBackoffMillis;
+    private final long maxBackoffMillis;
+    private final Supplier<StageMetricsConfiguration.Snapshot> settings;
+    private final Transport transport;
+    private final Consumer<String> errorLog;
+
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong clientErrors = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong notConfigured = new AtomicLong();
+    private final AtomicLong shortCircuited = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    // Last settings reported as unusable, so a misconfigured controller logs once rather than per stage
+    private final AtomicReference<StageMetricsConfiguration.Snapshot> reportedMisconfiguration = new AtomicReference<>();
+
+    public StageMetricsDelivery() {
+        this(POOL_SIZE, MAX_PENDING, MAX_ATTEMPTS, BASE_BACKOFF_MILLIS, MAX_BACKOFF_MILLIS,
+                new DeliveryCircuitBreaker(BREAKER_FAILURE_THRESHOLD, BREAKER_OPEN_MILLIS),
+                StageMetricsConfiguration::snapshot, null, StageMetricsDelivery::appendToLastError);
+    }
+
+    StageMetricsDelivery(int poolSize, int maxPending, int maxAttempts, long baseBackoffMillis, long maxBackoffMillis,
+                         DeliveryCircuitBreaker breaker, Supplier<StageMetricsConfiguration.Snapshot> settings,
+                         Transport transport, Consumer<String> errorLog) {
+        this.executor = new ScheduledThreadPoolExecutor(poolSize,
+                new NamingThreadFactory(new DaemonThreadFactory(), "StageMetricsDelivery"));
+        this.executor.setRemoveOnCancelPolicy(true);
+        this.maxPending = maxPending;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.baseBackoffMillis = Math.max(1, baseBackoffMillis);
+        this.maxBackoffMillis = Math.max(this.baseBackoffMillis, maxBackoffMillis);
+        this.breaker = breaker;
+        this.settings = settings;
+        this.transport = transport != null ? transport : StageMetricsDelivery::post;
+        this.errorLog = errorLog;
+    }
+
+    static StageMetricsDelivery get() {
+        return ExtensionList.lookupSingleton(StageMetricsDelivery.class);
+    }
+
+    @Terminator
+    public static void shutdownAll() {
+        for (StageMetricsDelivery delivery : ExtensionList.lookup(StageMetricsDelivery.class)) {
+            delivery.shutdown();
+        }
+    }
+
+    /**
+     * Queues one payload for delivery. Never blocks; if the backlog is full the payload is
+     * dropped and counted.
+     */
+    void submit(Map<String, Object> payloadData) {
+        if (pending.incrementAndGet() > maxPending) {
+            pending.decrementAndGet();
+            dropped.incrementAndGet();
+            return;
+        }
+        try {
+            executor.execute(() -> attempt(payloadData, 1));
+        } catch (RejectedExecutionException e) {
+            pending.decrementAndGet();
+            dropped.incrementAndGet();
+        }
+    }
+
+    private void attempt(Map<String, Object> payloadData, int attempt) {
+        boolean finished = true;
+        boolean permitOutstanding = false;
+        try {
+            StageMetricsConfiguration.Snapshot config = settings.get();
+            if (!config.isConfigured()) {
+                // A configuration problem, not an outage: fail once, no retry, breaker untouched
+                notConfigured.incrementAndGet();
+                if (reportedMisconfiguration.getAndSet(config) != config) {
+                    errorLog.accept("No usable http(s) endpoint URL configured; stage metrics are not being sent");
+                }
+                return;
+            }
+
+            if (!breaker.allowRequest(System.currentTimeMillis())) {
+                shortCircuited.incrementAndGet();
+                return;
+            }
+            permitOutstanding = true;
+
+            String failure;
+            boolean retryable = true;
+            long retryAfterMillis = -1;
+            try {
+                Response response = transport.send(payloadData, config);
+                if (response.code >= 200 && response.code < 300) {
+                    permitOutstanding = false;
+                    breaker.recordSuccess();
+                    delivered.incrementAndGet();
+                    return;
+                }
+                if (isClientError(response.code)) {
+                    // The endpoint is up, it just refuses this request; retrying will not help
+                    permitOutstanding = false;
+                    breaker.recordSuccess();
+                    clientErrors.incrementAndGet();
+                    errorLog.accept("HTTP request failed with response code: " + response.code +
+                            "\nPOST URL: " + response.url +
+                            "\nPOST payload: " + response.payloadJson);
+                    return;
+                }
+                failure = "HTTP request failed with response code: " + response.code +
+                        "\nPOST URL: " + response.url +
+                        "\nPOST payload: " + response.payloadJson;
+                retryable = isRetryable(response.code);
+                retryAfterMillis = response.retryAfterMillis;
+            } catch (IOException e) {
+                failure = "Async sendMetrics error: " + e.getMessage();
+            }
+
+            permitOutstanding = false;
+            if (breaker.recordFailure(System.currentTimeMillis())) {
+                errorLog.accept("Circuit opened; pausing delivery after: " + failure);
+            }
+
+            // Only retry while the endpoint looks healthy overall; during an outage the breaker decides
+            if (retryable && attempt < maxAttempts && breaker.isClosed()) {
+                try {
+                    executor.schedule(() -> attempt(payloadData, attempt + 1),
+                            retryDelayMillis(attempt, retryAfterMillis), TimeUnit.MILLISECONDS);
+                    retried.incrementAndGet();
+                    finished = false;
+                    return;
+                } catch (RejectedExecutionException e) {
+                    // Shutting down; fall through and count as failed
+                }
+            }
+            failed.incrementAndGet();
+            errorLog.accept(failure + " (after " + attempt + " attempt" + (attempt == 1 ? "" : "s") + ")");
+        } catch (RuntimeException e) {
+            failed.incrementAndGet();
+            LOGGER.log(Level.WARNING, "Unexpected error delivering stage metrics", e);
+        } finally {
+            if (permitOutstanding) {
+                // The request never reported back; release the permit so a half-open probe cannot wedge the breaker
+                breaker.recordFailure(System.currentTimeMillis());
+            }
+            if (finished) {
+                pending.decrementAndGet();
+            }
+        }
+    }
+
+    private static Response post(Map<String, Object> payloadData, StageMetricsConfiguration.Snapshot config) throws IOException {
+        String payloadJson = MAPPER.writeValueAsString(payloadData);
+
+        // Encode the JSON payload to be used in query param
+        String encodedPayload = URLEncoder.encode(payloadJson, StandardCharsets.UTF_8);
+
+        String fullUrl = config.endpointUri + "/rest/v1.0/objects?request=sendReportingData&payload=" + encodedPayload + "&reportObjectTypeName=ci_metrics";
+
+        URL url = new URL(fullUrl);
+        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        try {
+            conn.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+            conn.setReadTimeout(READ_TIMEOUT_MILLIS);
+            conn.setRequestProperty("Authorization", config.authorizationHeader);
+            if (conn instanceof HttpsURLConnection && config.trustSelfSigned) {
+                HttpsURLConnection https = (HttpsURLConnection) conn;
+                if (config.sslSocketFactory != null) {
+                    https.setSSLSocketFactory(config.sslSocketFactory);
+                }
+                https.setHostnameVerifier((hostname, session) -> true);
+            }
+
+            conn.setRequestMethod("POST");
+            conn.setRequestProperty("accept", "application/json");
+            conn.setRequestProperty("Content-Type", "application/json");
+            conn.setDoOutput(true);
+
+            try (OutputStream os = conn.getOutputStream()) {
+                os.write("{}".getBytes(StandardCharsets.UTF_8));
+            }
+
+            int responseCode = conn.getResponseCode();
+            return new Response(responseCode, fullUrl, payloadJson, parseRetryAfter(conn.getHeaderField("Retry-After")));
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    /**
+     * Transient failures worth retrying: request timeout, throttling and server errors.
+     */
+    static boolean isRetryable(int responseCode) {
+        return responseCode == 408 || responseCode == 429 || (responseCode >= 500 && responseCode < 600);
+    }
+
+    /**
+     * 4xx responses other than the retryable ones: the endpoint is healthy but rejects the request.
+     */
+    static boolean isClientError(int responseCode) {
+        return responseCode >= 400 && responseCode < 500 && !isRetryable(responseCode);
+    }
+
+    /**
+     * Exponential backoff with full jitter: a random delay in {@code [0, min(max, base * 2^(attempt-1))]}.
+     */
+    long backoffMillis(int attempt) {
+        long ceiling = baseBackoffMillis << Math.min(Math.max(attempt, 1) - 1, 20);
+        ceiling = Math.min(ceiling, maxBackoffMillis);
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    /**
+     * Delay before the next attempt: the server's {@code Retry-After} when given, capped at the maximum backoff.
+     */
+    long retryDelayMillis(int attempt, long retryAfterMillis) {
+        return retryAfterMillis >= 0 ? Math.min(retryAfterMillis, maxBackoffMillis) : backoffMillis(attempt);
+    }
+
+    static long parseRetryAfter(String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return TimeUnit.SECONDS.toMillis(Long.parseLong(value.trim()));
+        } catch (NumberFormatException e) {
+            // HTTP-date form is not worth supporting here; use our own backoff
+            return -1;
+        }
+    }
+
+    private static void appendToLastError(String message) {
+        StageMetricsConfiguration config = StageMetricsConfiguration.get();
+        if (config != null) {
+            config.appendToLastError("[" + new Date() + "] " + message);
+        }
+    }
+
+    int pending() {
+        return pending.get();
+    }
+
+    long delivered() {
+        return delivered.get();
+    }
+
+    long retried() {
+        return retried.get();
+    }
+
+    long failed() {
+        return failed.get();
+    }
+
+    long clientErrors() {
+        return clientErrors.get();
+    }
+
+    long shortCircuited() {
+        return shortCircuited.get();
+    }
+
+    long dropped() {
+        return dropped.get();
+    }
+
+    long notConfigured() {
+        return notConfigured.get();
+    }
+
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    DeliveryCircuitBreaker.State breakerState() {
+        return breaker.getState();
+    }
+
+    /**
+     * Human-readable breaker state and counters for the configuration page.
+     */
+    String describe() {
+        return breaker.describe(System.currentTimeMillis()) +
+                "\nDelivered: " + delivered.get() +
+                ", retried: " + retried.get() +
+                ", failed: " + failed.get() +
+                ", rejected (4xx): " + clientErrors.get() +
+                ", not configured: " + notConfigured.get() +
+                ", short-circuited: " + shortCircuited.get() +
+                ", dropped: " + dropped.get() +
+                ", pending: " + pending.get();
+    }
+
+    static final class Response {
+        final int code;
+        final String url;
+        final String payloadJson;
+        final long retryAfterMillis;
+
+        Response(int code, String url, String payloadJson, long retryAfterMillis) {
+            this.code = code;
+            this.url = url;
+            this.payloadJson = payloadJson;
+            this.retryAfterMillis = retryAfterMillis;
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package io.jenkins.plugins.sample;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.model.Action;
+import hudson.model.Item;
+import hudson.model.Job;
+import hudson.model.listeners.ItemListener;
+import jenkins.model.TransientActionFactory;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.StaplerResponse;
+import org.kohsuke.stapler.verb.GET;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * Cross-build stage comparison for a pipeline job, answered from {@link StageSummaryCache}.
+ *
+ * <ul>
+ *     <li>{@code stage-metrics/diff?from=N&to=M} &mdash; per-stage duration change between two builds,
+ *     slowest regressions first.</li>
+ *     <li>{@code stage-metrics/trend?builds=K} &mdash; per-stage durations and statistics over the last
+ *     {@code K} builds. Builds that could not be loaded in time are listed in {@code pendingBuilds}.</li>
+ * </ul>
+ *
+ * Responses are streamed, one stage at a time. Stages are matched across builds by
+ * {@link StageMetricsSummary#keys()}, so a repeated stage is reported once per occurrence
+ * ({@code Test}, {@code Test (2)}, ...) instead of being dropped.
+ */
+public class StageMetricsJobAction implements Action {
+
+    static final int DEFAULT_TREND_BUILDS = 50;
+    static final int MAX_TREND_BUILDS = Integer.getInteger(StageMetricsJobAction.class.getName() + ".maxTrendBuilds", 500);
+
+    private static final JsonFactory JSON = new JsonFactory();
+
+    private final Job<?, ?> job;
+
+    public StageMetricsJobAction(Job<?, ?> job) {
+        this.job = job;
+    }
+
+    public Job<?, ?> getJob() {
+        return job;
+    }
+
+    @Override
+    public String getIconFileName() {
+        // URL-only action; nothing to show in the side panel
+        return null;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "Stage Metrics";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "stage-metrics";
+    }
+
+    @GET
+    public void doDiff(StaplerResponse rsp, @QueryParameter int from, @QueryParameter int to) throws IOException {
+        StageSummaryCache.Window window = StageSummaryCache.get().getAll(job, Arrays.asList(from, to));
+        StageMetricsSummary a = window.summaries.get(from);
+        StageMetricsSummary b = window.summaries.get(to);
+        if (a == null || b == null) {
+            int missing = a == null ? from : to;
+            if (window.pending.contains(missing)) {
+                rsp.setHeader("Retry-After", String.valueOf(StageSummaryCache.LOAD_TIMEOUT_SECONDS));
+                rsp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+                        "Stage metrics for build #" + missing + " are still loading");
+            } else {
+                rsp.sendError(HttpServletResponse.SC_NOT_FOUND, "No stage metrics recorded for build #" + missing);
+            }
+            return;
+        }
+
+        List<String> names = stageNames(Arrays.asList(b, a));
+        int n = names.size();
+        long[] fromDurations = new long[n];
+        long[] toDurations = new long[n];
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            fromDurations[i] = duration(a, names.get(i));
+            toDurations[i] = duration(b, names.get(i));
+            order[i] = i;
+        }
+        // Largest slowdown first; stages present in only one build go last
+        Arrays.sort(order, (x, y) -> Long.compare(delta(fromDurations, toDurations, y), delta(fromDurations, toDurations, x)));
+
+        try (JsonGenerator json = startJson(rsp)) {
+            json.writeStartObject();
+            json.writeStringField("job", job.getFullName());
+            json.writeNumberField("from", from);
+            json.writeNumberField("to", to);
+            json.writeArrayFieldStart("stages");
+            for (int i : order) {
+                String name = names.get(i);
+                json.writeStartObject();
+                json.writeStringField("name", name);
+                writeDuration(json, "fromDurationMillis", fromDurations[i]);
+                writeDuration(json, "toDurationMillis", toDurations[i]);
+                if (fromDurations[i] >= 0 && toDurations[i] >= 0) {
+                    json.writeNumberField("deltaMillis", toDurations[i] - fromDurations[i]);
+                }
+                json.writeStringField("fromStatus", status(a, name));
+                json.writeStringField("toStatus", status(b, name));
+                json.writeEndObject();
+            }
+            json.writeEndArray();
+            json.writeEndObject();
+        }
+    }
+
+    @GET
+    public void doTrend(StaplerResponse rsp, @QueryParameter Integer builds) throws IOException {
+        int size = builds != null && builds > 0 ? Math.min(builds, MAX_TREND_BUILDS) : DEFAULT_TREND_BUILDS;
+        int last = job.getNextBuildNumber() - 1;
+        List<Integer> numbers = new ArrayList<>(size);
+        for (int number = Math.max(1, last - size + 1); number <= last; number++) {
+            numbers.add(number);
+        }
+        StageSummaryCache.Window window = StageSummaryCache.get().getAll(job, numbers);
+        SortedMap<Integer, StageMetricsSummary> summaries = window.summaries;
+
+        int k = summaries.size();
+        int[] buildNumbers = new int[k];
+        StageMetricsSummary[] ordered = new StageMetricsSummary[k];
+        int idx = 0;
+        for (Map.Entry<Integer, StageMetricsSummary> entry : summaries.entrySet()) {
+            buildNumbers[idx] = entry.getKey();
+            ordered[idx] = entry.getValue();
+            idx++;
+        }
+        List<StageMetricsSummary> newestFirst = new ArrayList<>(Arrays.asList(ordered));
+        Collections.reverse(newestFirst);
+        List<String> names = stageNames(newestFirst);
+
+        try (JsonGenerator json = startJson(rsp)) {
+            json.writeStartObject();
+            json.writeStringField("job", job.getFullName());
+            json.writeArrayFieldStart("builds");
+            for (int number : buildNumbers) {
+                json.writeNumber(number);
+            }
+            json.writeEndArray();
+            // Builds still being read from disk; asking again shortly returns them from the cache
+            json.writeBooleanField("partial", window.isPartial());
+            json.writeArrayFieldStart("pendingBuilds");
+            for (int number : window.pending) {
+                json.writeNumber(number);
+            }
+            json.writeEndArray();
+
+            json.writeArrayFieldStart("stages");
+            long[] durations = new long[k];
+            for (String name : names) {
+                long min = Long.MAX_VALUE;
+                long max = Long.MIN_VALUE;
+                long sum = 0;
+                int count = 0;
+                for (int i = 0; i < k; i++) {
+                    long d = duration(ordered[i], name);
+                    durations[i] = d;
+                    if (d >= 0) {
+                        min = Math.min(min, d);
+                        max = Math.max(max, d);
+                        sum += d;
+                        count++;
+                    }
+                }
+
+                json.writeStartObject();
+                json.writeStringField("name", name);
+                json.writeArrayFieldStart("durationsMillis");
+                for (int i = 0; i < k; i++) {
+                    if (durations[i] >= 0) {
+                        json.writeNumber(durations[i]);
+                    } else {
+                        json.writeNull();
+                    }
+                }
+                json.writeEndArray();
+                json.writeArrayFieldStart("statuses");
+                for (int i = 0; i < k; i++) {
+                    json.writeString(status(ordered[i], name));
+                }
+                json.writeEndArray();
+                json.writeNumberField("count", count);
+                if (count > 0) {
+                    json.writeNumberField("minMillis", min);
+                    json.writeNumberField("maxMillis", max);
+                    json.writeNumberField("meanMillis", sum / count);
+                }
+                json.writeEndObject();
+            }
+            json.writeEndArray();
+            json.writeEndObject();
+        }
+    }
+
+    private static JsonGenerator startJson(StaplerResponse rsp) throws IOException {
+        rsp.setContentType("application/json;charset=UTF-8");
+        return JSON.createGenerator(rsp.getOutputStream());
+    }
+
+    private static void writeDuration(JsonGenerator json, String field, long value) throws IOException {
+        if (value >= 0) {
+            json.writeNumberField(field, value);
+        } else {
+            json.writeNullField(field);
+        }
+    }
+
+    /**
+     * Union of the stage keys of the given summaries, in the order they are first seen.
+     */
+    private static List<String> stageNames(Collection<StageMetricsSummary> summaries) {
+        Map<String, Boolean> names = new LinkedHashMap<>();
+        for (StageMetricsSummary summary : summaries) {
+            for (String name : summary.keys()) {
+                names.putIfAbsent(name, Boolean.TRUE);
+            }
+        }
+        return new ArrayList<>(names.keySet());
+    }
+
+    private static long duration(StageMetricsSummary summary, String name) {
+        int i = summary.indexOf(name);
+        return i >= 0 ? summary.durations()[i] : -1;
+    }
+
+    private static String status(StageMetricsSummary summary, String name) {
+        int i = summary.indexOf(name);
+        return i >= 0 ? summary.statuses()[i] : null;
+    }
+
+    private static long delta(long[] from, long[] to, int i) {
+        return from[i] >= 0 && to[i] >= 0 ? to[i] - from[i] : Long.MIN_VALUE;
+    }
+
+    /**
+     * Cached summaries are keyed by job name, so they must go when a job is deleted or renamed;
+     * otherwise a new job reusing the name would see the old job's builds.
+     */
+    @Extension
+    public static class JobListener extends ItemListener {
+        @Override
+        public void onDeleted(Item item) {
+            StageSummaryCache.get().invalidateJob(item.getFullName());
+        }
+
+        @Override
+        public void onLocationChanged(Item item, String oldFullName, String newFullName) {
+            StageSummaryCache.get().invalidateJob(oldFullName);
+        }
+    }
+
+    @Extension
+    public static class Factory extends TransientActionFactory<WorkflowJob> {
+        @Override
+        public Class<WorkflowJob> type() {
+            return WorkflowJob.class;
+        }
+
+        @NonNull
+        @Override
+        public Collection<? extends Action> createFor(@NonNull WorkflowJob target) {
+            return Collections.singleton(new StageMetricsJobAction(target));
+        }
+    }
+}
@@ -6,15 +6,11 @@ import hudson.Extension;
 import hudson.model.*;
 import hudson.model.listeners.RunListener;
 
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.net.URLEncoder;
-import java.nio.charset.StandardCharsets;
+import java.io.IOException;
 import java.util.*;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import org.jenkinsci.plugins.workflow.actions.ErrorAction;
 import org.jenkinsci.plugins.workflow.actions.TimingAction;
 import org.jenkinsci.plugins.workflow.cps.nodes.StepStartNode;
@@ -25,15 +21,8 @@ import org.jenkinsci.plugins.workflow.graph.FlowNode;
 import org.jenkinsci.plugins.workflow.graphanalysis.DepthFirstScanner;
 import org.jenkinsci.plugins.workflow.job.WorkflowRun;
 
-import javax.net.ssl.HttpsURLConnection;
-import javax.net.ssl.SSLContext;
-import javax.net.ssl.TrustManager;
-import javax.net.ssl.X509TrustManager;
-
 @Extension
 public class StageMetricsRunListener extends RunListener<Run<?, ?>> {
-    // Executor for async HTTP requests
-    private static final java.util.concurrent.ExecutorService metricsExecutor = java.util.concurrent.Executors.newCachedThreadPool();
     private static final Logger LOGGER = Logger.getLogger(StageMetricsRunListener.class.getName());
 
     // Helper method to log both to Jenkins logs and append to lastError field
@@ -59,7 +48,7 @@ public class StageMetricsRunListener extends RunListener<Run<?, ?>> {
         if (!(run instanceof WorkflowRun)) {
             return;
         }
-        StageMetricsConfiguration config = StageMetricsConfiguration.get();
+        StageMetricsConfiguration.Snapshot config = StageMetricsConfiguration.snapshot();
         WorkflowRun workflowRun = (WorkflowRun) run;
         FlowExecution execution = workflowRun.getExecution();
         if (execution == null) return;
@@ -78,10 +67,7 @@ public class StageMetricsRunListener extends RunListener<Run<?, ?>> {
             String jobUrl = env.get("JOB_URL");
             
             // Get controller name from configuration, with fallback
-            String controllerName = config.getControllerName();
-            if (controllerName == null || controllerName.trim().isEmpty()) {
-                controllerName = "jenkins-controller"; // default fallback
-            }
+            String controllerName = config.controllerName;
             logInfo("Using configured controller name: " + controllerName, true);
             
             // Debug: Log environment variables that contain BUILD_TOOL
@@ -104,6 +90,13 @@ public class StageMetricsRunListener extends RunListener<Run<?, ?>> {
             }
             logInfo("Extracted pipeline buildTool: " + buildTool, true);
 
+            // Keep the computed stages with the build so nobody has to walk the flow graph again
+            try {
+                StageMetricsAction.attach(workflowRun, StageMetricsSummary.fromStageData(buildTool, stageData));
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to save stage metrics for " + run, e);
+            }
+
             Map<String, Object> payload = new HashMap<>();
             payload.put("runId", run.getId());
             payload.put("jobName", run.getParent().getFullName());
@@ -130,6 +123,13 @@ public class StageMetricsRunListener extends RunListener<Run<?, ?>> {
         }
     }
 
+    @Override
+    public void onDeleted(Run<?, ?> run) {
+        if (run instanceof WorkflowRun) {
+            StageSummaryCache.get().invalidate(run.getParent().getFullName(), run.getNumber());
+        }
+    }
+
     /**
      * Extract the pipeline-level BUILD_TOOL from withEnv nodes that are not within any stage
      */
@@ -527,75 +527,8 @@ public class StageMetricsRunListener extends RunListener<Run<?, ?>> {
         }
     }
 
-    private void sendMetrics(Map<String, Object> payloadData) throws Exception {
-        metricsExecutor.submit(() -> {
-            try {
-                StageMetricsConfiguration config = StageMetricsConfiguration.get();
-                String baseUrl = config.getEndpointUrl();
-                String user = config.getUsername();
-                String pass = config.getPassword();
-
-                if (baseUrl == null || baseUrl.isEmpty()) {
-                    throw new Exception("No endpoint URL configured");
-                }
-
-                // Convert payload map to JSON
-                ObjectMapper mapper = new ObjectMapper();
-                String payloadJson = mapper.writeValueAsString(payloadData);
-
-                // Encode the JSON payload to be used in query param
-                String encodedPayload = URLEncoder.encode(payloadJson, StandardCharsets.UTF_8);
-
-                String fullUrl = baseUrl + "/rest/v1.0/objects?request=sendReportingData&payload=" + encodedPayload + "&reportObjectTypeName=ci_metrics";
-
-                if (config.isTrustSelfSigned()) {
-                    trustAllCertificates();
-                }
-
-                URL url = new URL(fullUrl);
-                HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-                String encoded = Base64.getEncoder().encodeToString((user + ":" + pass).getBytes(StandardCharsets.UTF_8));
-                conn.setRequestProperty("Authorization", "Basic " + encoded);
-                if (conn instanceof HttpsURLConnection && config.isTrustSelfSigned()) {
-                    ((HttpsURLConnection) conn).setHostnameVerifier((hostname, session) -> true);
-                }
-
-                conn.setRequestMethod("POST");
-                conn.setRequestProperty("accept", "application/json");
-                conn.setRequestProperty("Content-Type", "application/json");
-                conn.setDoOutput(true);
-
-                try (OutputStream os = conn.getOutputStream()) {
-                    os.write("{}".getBytes(StandardCharsets.UTF_8));
-                }
-
-                int responseCode = conn.getResponseCode();
-                if (responseCode != 200 && responseCode != 201) {
-                    // Log the exact POST request and payload to the last error box
-                    String errorDetails = "HTTP request failed with response code: " + responseCode +
-                        "\nPOST URL: " + fullUrl +
-                        "\nPOST payload: " + payloadJson;
-                    StageMetricsConfiguration configLog = StageMetricsConfiguration.get();
-                    configLog.appendToLastError("[" + new Date() + "] " + errorDetails);
-                }
-            } catch (Exception e) {
-                StageMetricsConfiguration configLog = StageMetricsConfiguration.get();
-                configLog.appendToLastError("[" + new Date() + "] Async sendMetrics error: " + e.getMessage());
-            }
-        });
-    }
-    private static void trustAllCertificates() throws Exception {
-        TrustManager[] trustAllCerts = new TrustManager[]{
-                new X509TrustManager() {
-                    public java.security.cert.X509Certificate[] getAcceptedIssuers() { return new java.security.cert.X509Certificate[0]; }
-                    public void checkClientTrusted(java.security.cert.X509Certificate[] certs, String authType) {}
-                    public void checkServerTrusted(java.security.cert.X509Certificate[] certs, String authType) {}
-                }
-        };
-
-        SSLContext sc = SSLContext.getInstance("SSL");
-        sc.init(null, trustAllCerts, new java.security.SecureRandom());
-        HttpsURLConnection.setDefaultSSLSocketFactory(sc.getSocketFactory());
+    private void sendMetrics(Map<String, Object> payloadData) {
+        StageMetricsDelivery.get().submit(payloadData);
     }
 
 }
@@ -0,0 +1,255 @@
+package io.jenkins.plugins.sample;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import hudson.Util;
+import hudson.util.AtomicFileWriter;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact, immutable record of the stages of one build.
+ *
+ * Stages are kept as parallel arrays ordered by start time, which is also how the summary
+ * is written to disk next to {@code build.xml}.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public final class StageMetricsSummary {
+
+    static final String FILE_NAME = "stage-metrics.json";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    // The atomic writer must be committed, not closed, by us
+    private static final ObjectWriter WRITER = MAPPER.writer().without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+    private final String buildTool;
+    private final String[] names;
+    private final long[] startTimes;
+    private final long[] durations;
+    private final String[] statuses;
+    private final String[] buildTools;
+
+    private transient volatile String[] keys;
+    private transient volatile Map<String, Integer> index;
+
+    @JsonCreator
+    StageMetricsSummary(@JsonProperty("buildTool") String buildTool,
+                        @JsonProperty("names") String[] names,
+                        @JsonProperty("startTimes") long[] startTimes,
+                        @JsonProperty("durations") long[] durations,
+                        @JsonProperty("statuses") String[] statuses,
+                        @JsonProperty("buildTools") String[] buildTools) {
+        if (names == null || startTimes == null || durations == null || statuses == null || buildTools == null
+                || startTimes.length != names.length || durations.length != names.length
+                || statuses.length != names.length || buildTools.length != names.length) {
+            throw new IllegalArgumentException("Stage arrays must all be present and have the same length");
+        }
+        this.buildTool = buildTool;
+        this.names = names;
+        this.startTimes = startTimes;
+        this.durations = durations;
+        this.statuses = statuses;
+        this.buildTools = buildTools;
+    }
+
+    /**
+     * Builds a summary from the stage maps produced by {@link StageMetricsRunListener}.
+     */
+    static StageMetricsSummary fromStageData(String buildTool, List<Map<String, Object>> stageData) {
+        List<Map<String, Object>> sorted = new ArrayList<>(stageData);
+        sorted.sort(Comparator.comparingLong(stage -> toLong(stage.get("startTimeMillis"))));
+
+        int size = sorted.size();
+        String[] names = new String[size];
+        long[] startTimes = new long[size];
+        long[] durations = new long[size];
+        String[] statuses = new String[size];
+        String[] buildTools = new String[size];
+        for (int i = 0; i < size; i++) {
+            Map<String, Object> stage = sorted.get(i);
+            names[i] = String.valueOf(stage.get("name"));
+            startTimes[i] = toLong(stage.get("startTimeMillis"));
+            durations[i] = toLong(stage.get("durationMillis"));
+            statuses[i] = String.valueOf(stage.get("status"));
+            Object stageBuildTool = stage.get("stageBuildTool");
+            buildTools[i] = stageBuildTool != null ? stageBuildTool.toString() : null;
+        }
+        return new StageMetricsSummary(buildTool, names, startTimes, durations, statuses, buildTools);
+    }
+
+    private static long toLong(Object value) {
+        return value instanceof Number ? ((Number) value).longValue() : 0L;
+    }
+
+    static StageMetricsSummary read(File file) throws IOException {
+        return MAPPER.readValue(file, StageMetricsSummary.class);
+    }
+
+    /**
+     * Writes through a temporary file so a crash or full disk never leaves a truncated summary behind.
+     */
+    void write(File file) throws IOException {
+        AtomicFileWriter w = new AtomicFileWriter(file.toPath(), StandardCharsets.UTF_8);
+        try {
+            WRITER.writeValue(w, this);
+            w.commit();
+        } finally {
+            w.abort();
+        }
+    }
+
+    @JsonProperty("buildTool")
+    public String getBuildTool() {
+        return buildTool;
+    }
+
+    @JsonProperty("names")
+    String[] names() {
+        return names;
+    }
+
+    @JsonProperty("startTimes")
+    long[] startTimes() {
+        return startTimes;
+    }
+
+    @JsonProperty("durations")
+    long[] durations() {
+        return durations;
+    }
+
+    @JsonProperty("statuses")
+    String[] statuses() {
+        return statuses;
+    }
+
+    @JsonProperty("buildTools")
+    String[] buildTools() {
+        return buildTools;
+    }
+
+    @JsonIgnore
+    public int size() {
+        return names.length;
+    }
+
+    /**
+     * Stage names made unique within this build, in start order. A name that occurs more than once
+     * (stages in a loop, or the same stage in several parallel branches) keeps its plain name for
+     * the first occurrence and gets an occurrence suffix after that: {@code Test}, {@code Test (2)},
+     * {@code Test (3)}. Cross-build comparisons match stages by this key, so the n-th run of a
+     * repeated stage is compared with the n-th run in the other build.
+     */
+    String[] keys() {
+        String[] k = keys;
+        if (k == null) {
+            k = new String[names.length];
+            Map<String, Integer> seen = new HashMap<>(names.length * 2);
+            for (int i = 0; i < names.length; i++) {
+                int occurrence = seen.merge(names[i], 1, Integer::sum);
+                k[i] = occurrence == 1 ? names[i] : names[i] + " (" + occurrence + ")";
+            }
+            keys = k;
+        }
+        return k;
+    }
+
+    /**
+     * Position of the stage with the given {@linkplain #keys() key}, or {@code -1}. The index is built on first use.
+     */
+    int indexOf(String key) {
+        Map<String, Integer> idx = index;
+        if (idx == null) {
+            String[] k = keys();
+            idx = new HashMap<>(k.length * 2);
+            for (int i = 0; i < k.length; i++) {
+                idx.putIfAbsent(k[i], i);
+            }
+            index = idx;
+        }
+        Integer i = idx.get(key);
+        return i != null ? i : -1;
+    }
+
+    /**
+     * Read-only view of the stages, in start order.
+     */
+    @JsonIgnore
+    public List<Stage> getStages() {
+        return new AbstractList<Stage>() {
+            @Override
+            public Stage get(int index) {
+                if (index < 0 || index >= names.length) {
+                    throw new IndexOutOfBoundsException(String.valueOf(index));
+                }
+                return new Stage(names[index], startTimes[index], durations[index], statuses[index], buildTools[index]);
+            }
+
+            @Override
+            public int size() {
+                return names.length;
+            }
+        };
+    }
+
+    @ExportedBean(defaultVisibility = 2)
+    public static final class Stage {
+        private final String name;
+        private final long startTimeMillis;
+        private final long durationMillis;
+        private final String status;
+        private final String buildTool;
+
+        Stage(String name, long startTimeMillis, long durationMillis, String status, String buildTool) {
+            this.name = name;
+            this.startTimeMillis = startTimeMillis;
+            this.durationMillis = durationMillis;
+            this.status = status;
+            this.buildTool = buildTool;
+        }
+
+        @Exported
+        public String getName() {
+            return name;
+        }
+
+        @Exported
+        public long getStartTimeMillis() {
+            return startTimeMillis;
+        }
+
+        @Exported
+        public long getDurationMillis() {
+            return durationMillis;
+        }
+
+        public String getDurationString() {
+            return Util.getTimeSpanString(durationMillis);
+        }
+
+        @Exported
+        public String getStatus() {
+            return status;
+        }
+
+        @Exported
+        public String getBuildTool() {
+            return buildTool;
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package io.jenkins.plugins.sample;
+
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.init.Terminator;
+import hudson.model.Job;
+import hudson.model.Run;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.model.Jenkins;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Process-wide LRU cache of per-build {@link StageMetricsSummary} objects.
+ *
+ * The cache is bounded by the total number of stages it holds rather than by build count,
+ * since one large pipeline can outweigh dozens of small ones. Builds that are not cached
+ * are loaded in parallel on a small pool so a long comparison window does not read
+ * build records one at a time. A load that outlives the request timeout keeps going and
+ * its result is cached, so the next request for the same window finds it.
+ *
+ * One instance exists per Jenkins instance; its loader pool is shut down when Jenkins stops.
+ */
+@Extension
+public final class StageSummaryCache {
+    private static final Logger LOGGER = Logger.getLogger(StageSummaryCache.class.getName());
+
+    private static final String PROPERTY_PREFIX = StageSummaryCache.class.getName() + ".";
+    static final int MAX_STAGES = Integer.getInteger(PROPERTY_PREFIX + "maxStages", 100_000);
+    static final int LOADER_THREADS = Integer.getInteger(PROPERTY_PREFIX + "loaderThreads", 4);
+    static final long LOAD_TIMEOUT_SECONDS = Long.getLong(PROPERTY_PREFIX + "loadTimeoutSeconds", 10L);
+
+    private final int maxStages;
+    private final LinkedHashMap<String, StageMetricsSummary> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private int totalStages;
+    private final ExecutorService loader = Executors.newFixedThreadPool(LOADER_THREADS,
+            new NamingThreadFactory(new DaemonThreadFactory(), "StageSummaryCache loader"));
+
+    public StageSummaryCache() {
+        this(MAX_STAGES);
+    }
+
+    StageSummaryCache(int maxStages) {
+        this.maxStages = Math.max(1, maxStages);
+    }
+
+    static StageSummaryCache get() {
+        return ExtensionList.lookupSingleton(StageSummaryCache.class);
+    }
+
+    @Terminator
+    public static void shutdownAll() {
+        for (StageSummaryCache cache : ExtensionList.lookup(StageSummaryCache.class)) {
+            cache.loader.shutdownNow();
+        }
+    }
+
+    private static String key(String jobFullName, int buildNumber) {
+        return jobFullName + '#' + buildNumber;
+    }
+
+    private static int weight(StageMetricsSummary summary) {
+        return Math.max(1, summary.size());
+    }
+
+    synchronized StageMetricsSummary getIfPresent(String jobFullName, int buildNumber) {
+        return entries.get(key(jobFullName, buildNumber));
+    }
+
+    synchronized void put(String jobFullName, int buildNumber, StageMetricsSummary summary) {
+        StageMetricsSummary old = entries.put(key(jobFullName, buildNumber), summary);
+        if (old != null) {
+            totalStages -= weight(old);
+        }
+        totalStages += weight(summary);
+
+        // Evict least recently used entries, but always keep the one just added
+        Iterator<StageMetricsSummary> it = entries.values().iterator();
+        while (totalStages > maxStages && entries.size() > 1 && it.hasNext()) {
+            totalStages -= weight(it.next());
+            it.remove();
+        }
+    }
+
+    synchronized void invalidate(String jobFullName, int buildNumber) {
+        StageMetricsSummary old = entries.remove(key(jobFullName, buildNumber));
+        if (old != null) {
+            totalStages -= weight(old);
+        }
+    }
+
+    /**
+     * Drops every entry of the given job, and of any job nested under it when it is a folder.
+     */
+    synchronized void invalidateJob(String fullName) {
+        String buildPrefix = fullName + '#';
+        String childPrefix = fullName + '/';
+        Iterator<Map.Entry<String, StageMetricsSummary>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, StageMetricsSummary> entry = it.next();
+            if (entry.getKey().startsWith(buildPrefix) || entry.getKey().startsWith(childPrefix)) {
+                totalStages -= weight(entry.getValue());
+                it.remove();
+            }
+        }
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    synchronized int totalStages() {
+        return totalStages;
+    }
+
+    /**
+     * Summaries for the given builds of a job. Builds that no longer exist or never recorded
+     * stage metrics are left out; builds still loading after {@link #LOAD_TIMEOUT_SECONDS} are
+     * listed in {@link Window#pending}.
+     */
+    Window getAll(Job<?, ?> job, Collection<Integer> buildNumbers) {
+        String jobFullName = job.getFullName();
+        Window result = new Window();
+        List<Integer> missing = new ArrayList<>();
+        for (Integer number : buildNumbers) {
+            StageMetricsSummary cached = getIfPresent(jobFullName, number);
+            if (cached != null) {
+                result.summaries.put(number, cached);
+            } else {
+                missing.add(number);
+            }
+        }
+        if (missing.isEmpty()) {
+            return result;
+        }
+
+        Map<Integer, CompletableFuture<StageMetricsSummary>> futures = new LinkedHashMap<>();
+        for (Integer number : missing) {
+            try {
+                futures.put(number, CompletableFuture.supplyAsync(() -> load(job, number), loader)
+                        .thenApply(summary -> {
+                            // Cached here rather than by the caller so that late results are kept too
+                            if (summary != null && isCurrent(job, jobFullName)) {
+                                put(jobFullName, number, summary);
+                            }
+                            return summary;
+                        })
+                        .exceptionally(e -> {
+                            LOGGER.log(Level.WARNING, "Failed to load stage metrics for " + jobFullName + " #" + number, e);
+                            return null;
+                        }));
+            } catch (RejectedExecutionException e) {
+                // Jenkins is shutting down
+                return result;
+            }
+        }
+        try {
+            CompletableFuture.allOf(futures.values().toArray(new CompletableFuture<?>[0]))
+                    .get(LOAD_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            LOGGER.log(Level.FINE, "Not all stage summaries of " + jobFullName + " could be loaded", e);
+        }
+        for (Map.Entry<Integer, CompletableFuture<StageMetricsSummary>> entry : futures.entrySet()) {
+            CompletableFuture<StageMetricsSummary> future = entry.getValue();
+            if (!future.isDone()) {
+                result.pending.add(entry.getKey());
+                continue;
+            }
+            StageMetricsSummary summary = future.getNow(null);
+            if (summary != null) {
+                result.summaries.put(entry.getKey(), summary);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Whether the job is still registered under the name it was loaded with, so that a load
+     * finishing after the job was deleted or renamed does not put stale entries back.
+     */
+    private static boolean isCurrent(Job<?, ?> job, String jobFullName) {
+        Jenkins jenkins = Jenkins.getInstanceOrNull();
+        if (jenkins == null) {
+            return false;
+        }
+        try (ACLContext ignored = ACL.as2(ACL.SYSTEM2)) {
+            return jenkins.getItemByFullName(jobFullName, Job.class) == job;
+        }
+    }
+
+    private static StageMetricsSummary load(Job<?, ?> job, int buildNumber) {
+        Run<?, ?> run = job.getBuildByNumber(buildNumber);
+        if (run == null) {
+            return null;
+        }
+        StageMetricsAction action = run.getAction(StageMetricsAction.class);
+        return action != null ? action.getSummary() : null;
+    }
+
+    /**
+     * Result of {@link #getAll}: summaries keyed by build number in ascending order, and the
+     * builds that were still loading when the timeout expired.
+     */
+    static final class Window {
+        final SortedMap<Integer, StageMetricsSummary> summaries = new TreeMap<>();
+        final SortedSet<Integer> pending = new TreeSet<>();
+
+        boolean isPartial() {
+            return !pending.isEmpty();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package io.jenkins.plugins.sample;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DeliveryCircuitBreakerTest {
+
+    @Test
+    public void opensAfterConsecutiveFailures() {
+        DeliveryCircuitBreaker breaker = new DeliveryCircuitBreaker(3, 1000);
+        assertFalse(breaker.recordFailure(0));
+        assertFalse(breaker.recordFailure(0));
+        assertTrue(breaker.recordFailure(0));
+        assertEquals(DeliveryCircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest(500));
+    }
+
+    @Test
+    public void successResetsFailureCount() {
+        DeliveryCircuitBreaker breaker = new DeliveryCircuitBreaker(2, 1000);
+        breaker.recordFailure(0);
+        breaker.recordSuccess();
+        assertFalse(breaker.recordFailure(0));
+        assertTrue(breaker.allowRequest(0));
+    }
+
+    @Test
+    public void halfOpenAllowsSingleProbe() {
+        DeliveryCircuitBreaker breaker = new DeliveryCircuitBreaker(1, 1000);
+        breaker.recordFailure(0);
+        assertTrue(breaker.allowRequest(1000));
+        assertEquals(DeliveryCircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest(1000));
+
+        breaker.recordSuccess();
+        assertEquals(DeliveryCircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest(1000));
+    }
+
+    @Test
+    public void failedProbeReopens() {
+        DeliveryCircuitBreaker breaker = new DeliveryCircuitBreaker(1, 1000);
+        breaker.recordFailure(0);
+        assertTrue(breaker.allowRequest(1000));
+        assertTrue(breaker.recordFailure(1000));
+        assertFalse(breaker.allowRequest(1500));
+        assertTrue(breaker.allowRequest(2000));
+    }
+
+    @Test
+    public void classifiesResponseCodes() {
+        assertTrue(StageMetricsDelivery.isRetryable(500));
+        assertTrue(StageMetricsDelivery.isRetryable(503));
+        assertTrue(StageMetricsDelivery.isRetryable(429));
+        assertTrue(StageMetricsDelivery.isRetryable(408));
+        assertFalse(StageMetricsDelivery.isRetryable(400));
+        assertFalse(StageMetricsDelivery.isRetryable(401));
+        assertFalse(StageMetricsDelivery.isRetryable(404));
+    }
+}
@@ -0,0 +1,96 @@
+package io.jenkins.plugins.sample;
+
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import net.sf.json.JSONObject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class StageMetricsActionTest {
+
+    @Rule
+    public JenkinsRule jenkins = new JenkinsRule();
+
+    static StageMetricsSummary twoStages() {
+        return new StageMetricsSummary("maven",
+                new String[]{"Build", "Test"},
+                new long[]{1000L, 1500L},
+                new long[]{500L, 250L},
+                new String[]{"SUCCESS", "FAILURE"},
+                new String[]{"gradle", "maven"});
+    }
+
+    @Test
+    public void apiExposesStages() throws Exception {
+        FreeStyleProject p = jenkins.createFreeStyleProject("p");
+        FreeStyleBuild run = jenkins.buildAndAssertSuccess(p);
+        StageMetricsAction.attach(run, twoStages());
+
+        JSONObject api = JSONObject.fromObject(jenkins.createWebClient()
+                .goTo(run.getUrl() + "stage-metrics/api/json", "application/json")
+                .getWebResponse().getContentAsString());
+        String stageClass = StageMetricsSummary.Stage.class.getName();
+        JSONObject expected = JSONObject.fromObject("{"
+                + "'_class':'" + StageMetricsAction.class.getName() + "',"
+                + "'buildTool':'maven',"
+                + "'stages':["
+                + "{'_class':'" + stageClass + "','name':'Build','startTimeMillis':1000,'durationMillis':500,'status':'SUCCESS','buildTool':'gradle'},"
+                + "{'_class':'" + stageClass + "','name':'Test','startTimeMillis':1500,'durationMillis':250,'status':'FAILURE','buildTool':'maven'}"
+                + "]}");
+        assertEquals(expected, api);
+    }
+
+    @Test
+    public void summaryIsReloadedFromDisk() throws Exception {
+        FreeStyleProject p = jenkins.createFreeStyleProject("p");
+        FreeStyleBuild run = jenkins.buildAndAssertSuccess(p);
+        StageMetricsAction.attach(run, twoStages());
+        assertTrue(new File(run.getRootDir(), StageMetricsSummary.FILE_NAME).isFile());
+
+        run.reload();
+        StageMetricsAction action = run.getAction(StageMetricsAction.class);
+        assertNotNull(action);
+        StageMetricsSummary summary = action.getSummary();
+        assertNotNull(summary);
+        assertEquals(2, summary.size());
+        assertEquals("Test", summary.getStages().get(1).getName());
+        assertEquals(250L, summary.getStages().get(1).getDurationMillis());
+    }
+
+    @Test
+    public void corruptSummaryIsIgnored() throws Exception {
+        FreeStyleProject p = jenkins.createFreeStyleProject("p");
+        FreeStyleBuild run = jenkins.buildAndAssertSuccess(p);
+        StageMetricsAction.attach(run, twoStages());
+        Files.write(new File(run.getRootDir(), StageMetricsSummary.FILE_NAME).toPath(),
+                "{\"names\":[\"Bui".getBytes(StandardCharsets.UTF_8));
+
+        run.reload();
+        StageMetricsAction action = run.getAction(StageMetricsAction.class);
+        assertNull(action.getSummary());
+        assertTrue(action.getStages().isEmpty());
+    }
+
+    @Test
+    public void buildPageShowsTable() throws Exception {
+        FreeStyleProject p = jenkins.createFreeStyleProject("p");
+        FreeStyleBuild run = jenkins.buildAndAssertSuccess(p);
+        StageMetricsAction.attach(run, twoStages());
+
+        String text = jenkins.createWebClient().getPage(run).asNormalizedText();
+        assertTrue(text, text.contains("Stage Metrics"));
+        assertTrue(text, text.contains("Build"));
+        assertTrue(text, text.contains("FAILURE"));
+        assertTrue(text, text.contains("gradle"));
+    }
+}
@@ -0,0 +1,183 @@
+package io.jenkins.plugins.sample;
+
+import hudson.util.Secret;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class StageMetricsConfigurationTest {
+
+    @Rule
+    public JenkinsRule jenkins = new JenkinsRule();
+
+    @Test
+    public void snapshotPrecomputesRequestSettings() {
+        StageMetricsConfiguration.Snapshot snapshot = new StageMetricsConfiguration.Snapshot(
+                "https://analytics.example.com/", "user", "secret", false, "ctrl-1");
+
+        assertTrue(snapshot.isConfigured());
+        assertEquals("https://analytics.example.com", snapshot.endpointUri.toString());
+        assertEquals("Basic " + Base64.getEncoder().encodeToString("user:secret".getBytes(StandardCharsets.UTF_8)),
+                snapshot.authorizationHeader);
+        assertEquals("ctrl-1", snapshot.controllerName);
+        assertNull(snapshot.sslSocketFactory);
+    }
+
+    @Test
+    public void snapshotBuildsSocketFactoryForSelfSigned() {
+        StageMetricsConfiguration.Snapshot snapshot = new StageMetricsConfiguration.Snapshot(
+                "https://analytics.example.com", "user", "secret", true, null);
+
+        assertNotNull(snapshot.sslSocketFactory);
+        assertEquals("jenkins-controller", snapshot.controllerName);
+    }
+
+    @Test
+    public void emptySnapshotIsNotConfigured() {
+        assertFalse(StageMetricsConfiguration.Snapshot.EMPTY.isConfigured());
+        assertFalse(new StageMetricsConfiguration.Snapshot("not a uri", "u", "p", false, null).isConfigured());
+    }
+
+    @Test
+    public void saveAfterSettersPublishesSnapshot() {
+        StageMetricsConfiguration config = StageMetricsConfiguration.get();
+        config.setEndpointUrl("https://first.example.com");
+        config.save();
+        StageMetricsConfiguration.Snapshot first = StageMetricsConfiguration.snapshot();
+        assertEquals("https://first.example.com", first.endpointUrl);
+
+        config.setEndpointUrl("https://second.example.com/");
+        config.setControllerName("ctrl-2");
+        config.save();
+        StageMetricsConfiguration.Snapshot second = StageMetricsConfiguration.snapshot();
+        assertEquals("https://second.example.com", second.endpointUri.toString());
+        assertEquals("ctrl-2", second.controllerName);
+
+        // Recording an error saves too, but leaves the delivery settings alone
+        config.appendToLastError("boom");
+        assertSame(second, StageMetricsConfiguration.snapshot());
+    }
+
+    @Test
+    public void snapshotFallsBackToDescriptorWhenNothingPublished() {
+        StageMetricsConfiguration config = StageMetricsConfiguration.get();
+        config.setEndpointUrl("https://fallback.example.com");
+        config.save();
+
+        StageMetricsConfiguration.forgetSnapshot();
+        assertEquals("https://fallback.example.com", StageMetricsConfiguration.snapshot().endpointUrl);
+    }
+
+    /**
+     * Errors are recorded from delivery threads while settings change. No message may be lost, and
+     * no published snapshot may pair one setting's URL with another setting's credentials.
+     */
+    @Test
+    public void appendToLastErrorIsSafeAlongsideSettingChanges() throws Exception {
+        StageMetricsConfiguration config = StageMetricsConfiguration.get();
+        config.clearLastError();
+        int appenders = 4;
+        int messages = 50;
+        AtomicBoolean running = new AtomicBoolean(true);
+        List<String> mismatches = new CopyOnWriteArrayList<>();
+
+        Thread settings = new Thread(() -> {
+            for (int i = 0; running.get(); i++) {
+                // Several setters followed by save(), as configuration as code does, made atomic like configure()
+                synchronized (config) {
+                    config.setEndpointUrl("https://host-" + i + ".example.com");
+                    config.setUsername("user-" + i);
+                    config.setPassword(Secret.fromString("pass-" + i));
+                    config.save();
+                }
+                Thread.yield();
+            }
+        });
+        Thread checker = new Thread(() -> {
+            while (running.get()) {
+                StageMetricsConfiguration.Snapshot snapshot = StageMetricsConfiguration.snapshot();
+                if (snapshot.endpointUrl != null && snapshot.endpointUrl.startsWith("https://host-")) {
+                    String i = snapshot.endpointUrl.substring("https://host-".length(), snapshot.endpointUrl.indexOf('.'));
+                    String expected = "Basic " + Base64.getEncoder().encodeToString(
+                            ("user-" + i + ":pass-" + i).getBytes(StandardCharsets.UTF_8));
+                    if (!expected.equals(snapshot.authorizationHeader)) {
+                        mismatches.add(snapshot.endpointUrl);
+                    }
+                }
+            }
+        });
+        settings.start();
+        checker.start();
+
+        ExecutorService pool = Executors.newFixedThreadPool(appenders);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < appenders; t++) {
+                int thread = t;
+                futures.add(pool.submit(() -> {
+                    for (int m = 0; m < messages; m++) {
+                        config.appendToLastError("error " + thread + "-" + m);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            running.set(false);
+            pool.shutdownNow();
+            settings.join();
+            checker.join();
+        }
+
+        String[] lines = config.getLastError().split("\n");
+        assertEquals(appenders * messages, lines.length);
+        assertTrue("inconsistent snapshots: " + mismatches, mismatches.isEmpty());
+    }
+
+    @Test
+    public void legacyPlainTextPasswordMigratesToSecret() throws Exception {
+        File xml = new File(jenkins.jenkins.getRootDir(), StageMetricsConfiguration.class.getName() + ".xml");
+        Files.write(xml.toPath(), ("<?xml version='1.1' encoding='UTF-8'?>\n"
+                + "<" + StageMetricsConfiguration.class.getName() + ">\n"
+                + "  <endpointUrl>https://legacy.example.com</endpointUrl>\n"
+                + "  <username>user</username>\n"
+                + "  <password>legacy-secret</password>\n"
+                + "  <trustSelfSigned>false</trustSelfSigned>\n"
+                + "</" + StageMetricsConfiguration.class.getName() + ">\n").getBytes(StandardCharsets.UTF_8));
+
+        StageMetricsConfiguration config = StageMetricsConfiguration.get();
+        config.load();
+        Secret password = config.getPassword();
+        assertNotNull(password);
+        assertEquals("legacy-secret", password.getPlainText());
+        assertEquals("Basic " + Base64.getEncoder().encodeToString("user:legacy-secret".getBytes(StandardCharsets.UTF_8)),
+                StageMetricsConfiguration.snapshot().authorizationHeader);
+
+        config.save();
+        String saved = new String(Files.readAllBytes(xml.toPath()), StandardCharsets.UTF_8);
+        assertFalse(saved.contains("legacy-secret"));
+        // Encrypted secrets are written in their "{...}" form
+        assertTrue(saved.contains("<password>{"));
+    }
+}
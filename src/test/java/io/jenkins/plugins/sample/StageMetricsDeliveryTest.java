@@ -0,0 +1,222 @@
+package io.jenkins.plugins.sample;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class StageMetricsDeliveryTest {
+
+    private StubReportingEndpoint endpoint;
+    private StageMetricsDelivery delivery;
+    private final List<String> errors = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void startEndpoint() throws Exception {
+        endpoint = new StubReportingEndpoint();
+    }
+
+    @After
+    public void stop() {
+        if (delivery != null) {
+            delivery.shutdown();
+        }
+        endpoint.close();
+    }
+
+    private StageMetricsDelivery delivery(int maxPending, DeliveryCircuitBreaker breaker,
+                                          StageMetricsConfiguration.Snapshot settings,
+                                          StageMetricsDelivery.Transport transport) {
+        delivery = new StageMetricsDelivery(2, maxPending, 3, 10, 50, breaker, () -> settings, transport, errors::add);
+        return delivery;
+    }
+
+    private StageMetricsDelivery delivery() {
+        return delivery(100, new DeliveryCircuitBreaker(100, 60_000), settings(), null);
+    }
+
+    private StageMetricsConfiguration.Snapshot settings() {
+        return new StageMetricsConfiguration.Snapshot(endpoint.getUrl(), "user", "pass", false, null);
+    }
+
+    private static Map<String, Object> payload(String stage) {
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("jobName", "job");
+        payload.put("runId", "1");
+        payload.put("name", stage);
+        return payload;
+    }
+
+    private void drain() throws InterruptedException {
+        StageMetricsRunListenerTest.await(() -> delivery.pending() == 0, 30);
+    }
+
+    @Test
+    public void backoffStaysWithinExponentialCeiling() {
+        StageMetricsDelivery d = new StageMetricsDelivery(1, 1, 3, 100, 1000,
+                new DeliveryCircuitBreaker(1, 1), () -> StageMetricsConfiguration.Snapshot.EMPTY, null, errors::add);
+        try {
+            for (int attempt = 1; attempt <= 8; attempt++) {
+                long ceiling = Math.min(1000, 100L << (attempt - 1));
+                for (int i = 0; i < 1000; i++) {
+                    long delay = d.backoffMillis(attempt);
+                    assertTrue("attempt " + attempt + " gave " + delay, delay >= 0 && delay <= ceiling);
+                }
+            }
+        } finally {
+            d.shutdown();
+        }
+    }
+
+    @Test
+    public void retryAfterIsHonouredButCapped() {
+        StageMetricsDelivery d = delivery();
+        assertEquals(20, d.retryDelayMillis(1, 20));
+        assertEquals(50, d.retryDelayMillis(1, 3_600_000));
+        assertEquals(3000, StageMetricsDelivery.parseRetryAfter(" 3 "));
+        assertEquals(-1, StageMetricsDelivery.parseRetryAfter("Wed, 21 Oct 2015 07:28:00 GMT"));
+        assertEquals(-1, StageMetricsDelivery.parseRetryAfter(null));
+    }
+
+    @Test
+    public void retriesTransientFailuresUntilDelivered() throws Exception {
+        StageMetricsDelivery d = delivery();
+        endpoint.failNext(2);
+        d.submit(payload("Build"));
+        drain();
+
+        assertEquals(1, d.delivered());
+        assertEquals(2, d.retried());
+        assertEquals(0, d.failed());
+        assertEquals(3, endpoint.getRequests());
+        assertTrue(endpoint.hasStage("job", "1", "Build"));
+    }
+
+    @Test
+    public void givesUpAfterMaxAttempts() throws Exception {
+        StageMetricsDelivery d = delivery();
+        endpoint.withStatus(503);
+        d.submit(payload("Build"));
+        drain();
+
+        assertEquals(0, d.delivered());
+        assertEquals(2, d.retried());
+        assertEquals(1, d.failed());
+        assertEquals(3, endpoint.getRequests());
+        assertEquals(1, errors.size());
+    }
+
+    @Test
+    public void neverRetriesClientErrors() throws Exception {
+        StageMetricsDelivery d = delivery();
+        endpoint.withStatus(400);
+        d.submit(payload("Build"));
+        drain();
+
+        assertEquals(1, d.clientErrors());
+        assertEquals(0, d.retried());
+        assertEquals(1, endpoint.getRequests());
+        assertEquals(DeliveryCircuitBreaker.State.CLOSED, d.breakerState());
+    }
+
+    @Test
+    public void classifiesResponseCodes() {
+        for (int code : new int[]{400, 401, 403, 404, 422}) {
+            assertTrue(String.valueOf(code), StageMetricsDelivery.isClientError(code));
+            assertFalse(String.valueOf(code), StageMetricsDelivery.isRetryable(code));
+        }
+        for (int code : new int[]{408, 429, 500, 503, 599}) {
+            assertTrue(String.valueOf(code), StageMetricsDelivery.isRetryable(code));
+            assertFalse(String.valueOf(code), StageMetricsDelivery.isClientError(code));
+        }
+        for (int code : new int[]{-1, 101, 301, 302, 307, 600}) {
+            assertFalse(String.valueOf(code), StageMetricsDelivery.isRetryable(code));
+            assertFalse(String.valueOf(code), StageMetricsDelivery.isClientError(code));
+        }
+    }
+
+    @Test
+    public void unexpectedResponsesCountAgainstBreakerWithoutRetry() throws Exception {
+        DeliveryCircuitBreaker breaker = new DeliveryCircuitBreaker(2, 60_000);
+        StageMetricsDelivery d = delivery(100, breaker, settings(), (payload, config) ->
+                new StageMetricsDelivery.Response("Redirect".equals(payload.get("name")) ? 302 : -1,
+                        config.endpointUrl, "{}", -1));
+
+        d.submit(payload("Redirect"));
+        drain();
+        assertEquals(1, d.failed());
+        assertEquals(0, d.retried());
+        assertEquals(0, d.clientErrors());
+        assertEquals(DeliveryCircuitBreaker.State.CLOSED, breaker.getState());
+
+        d.submit(payload("Garbage"));
+        drain();
+        assertEquals(2, d.failed());
+        assertEquals(0, d.retried());
+        assertEquals(DeliveryCircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void dropsBeyondMaxPending() throws Exception {
+        StageMetricsDelivery d = delivery(2, new DeliveryCircuitBreaker(100, 60_000), settings(), null);
+        endpoint.withLatency(300);
+        for (int i = 0; i < 5; i++) {
+            d.submit(payload("Stage " + i));
+        }
+        assertEquals(3, d.dropped());
+        assertEquals(2, d.pending());
+
+        drain();
+        assertEquals(2, d.delivered());
+        assertEquals(0, d.pending());
+    }
+
+    @Test
+    public void missingEndpointFailsOnceWithoutTrippingBreaker() throws Exception {
+        StageMetricsDelivery d = delivery(100, new DeliveryCircuitBreaker(2, 60_000),
+                new StageMetricsConfiguration.Snapshot("file:///tmp/metrics", "user", "pass", false, null), null);
+        for (int i = 0; i < 10; i++) {
+            d.submit(payload("Stage " + i));
+        }
+        drain();
+
+        assertEquals(10, d.notConfigured());
+        assertEquals(0, d.retried());
+        assertEquals(0, d.failed());
+        assertEquals(DeliveryCircuitBreaker.State.CLOSED, d.breakerState());
+        assertEquals("misconfiguration is reported once", 1, errors.size());
+        assertEquals(0, endpoint.getRequests());
+    }
+
+    @Test
+    public void unexpectedErrorDuringProbeDoesNotWedgeBreaker() throws Exception {
+        DeliveryCircuitBreaker breaker = new DeliveryCircuitBreaker(1, 0);
+        breaker.recordFailure(0);
+        AtomicInteger calls = new AtomicInteger();
+        StageMetricsDelivery d = delivery(100, breaker, settings(), (payload, config) -> {
+            if (calls.incrementAndGet() == 1) {
+                throw new IllegalStateException("boom");
+            }
+            return new StageMetricsDelivery.Response(200, config.endpointUrl, "{}", -1);
+        });
+
+        d.submit(payload("Build"));
+        drain();
+        assertEquals(1, d.failed());
+        assertFalse("probe permit must be released", breaker.getState() == DeliveryCircuitBreaker.State.HALF_OPEN);
+
+        d.submit(payload("Test"));
+        drain();
+        assertEquals(1, d.delivered());
+        assertEquals(DeliveryCircuitBreaker.State.CLOSED, breaker.getState());
+    }
+}
@@ -0,0 +1,145 @@
+package io.jenkins.plugins.sample;
+
+import com.fasterxml.jackson.core.json.JsonReadFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static io.jenkins.plugins.sample.StageMetricsRunListenerTest.await;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class StageMetricsJobActionTest {
+
+    private static final ObjectMapper MAPPER = JsonMapper.builder()
+            .enable(JsonReadFeature.ALLOW_SINGLE_QUOTES)
+            .build();
+
+    @Rule
+    public JenkinsRule jenkins = new JenkinsRule();
+
+    private WorkflowJob job;
+
+    @Before
+    public void recordThreeBuilds() throws Exception {
+        job = jenkins.createProject(WorkflowJob.class, "p");
+        job.setDefinition(new CpsFlowDefinition("echo 'hi'", true));
+        record(new String[]{"Build", "Test", "Deploy"},
+                new long[]{500L, 250L, 100L},
+                new String[]{"SUCCESS", "SUCCESS", "SUCCESS"});
+        // "Test" runs twice in #2; the second run is reported as "Test (2)"
+        record(new String[]{"Build", "Test", "Test"},
+                new long[]{800L, 200L, 30L},
+                new String[]{"SUCCESS", "FAILURE", "SUCCESS"});
+        record(new String[]{"Build", "Test"},
+                new long[]{600L, 300L},
+                new String[]{"SUCCESS", "SUCCESS"});
+    }
+
+    private void record(String[] names, long[] durations, String[] statuses) throws Exception {
+        WorkflowRun run = jenkins.buildAndAssertSuccess(job);
+        // Let the listener record its own summary first so ours is the one that sticks
+        await(() -> run.getAction(StageMetricsAction.class) != null, 30);
+        long[] starts = new long[names.length];
+        for (int i = 0; i < starts.length; i++) {
+            starts[i] = i * 1000L;
+        }
+        StageMetricsAction.attach(run, new StageMetricsSummary("maven", names, starts, durations, statuses,
+                new String[names.length]));
+    }
+
+    @Test
+    public void diffSortsBySlowdownAndPutsOneSidedStagesLast() throws Exception {
+        JsonNode expected = MAPPER.readTree("{'job':'p','from':1,'to':2,'stages':["
+                + "{'name':'Build','fromDurationMillis':500,'toDurationMillis':800,'deltaMillis':300,'fromStatus':'SUCCESS','toStatus':'SUCCESS'},"
+                + "{'name':'Test','fromDurationMillis':250,'toDurationMillis':200,'deltaMillis':-50,'fromStatus':'SUCCESS','toStatus':'FAILURE'},"
+                + "{'name':'Test (2)','fromDurationMillis':null,'toDurationMillis':30,'fromStatus':null,'toStatus':'SUCCESS'},"
+                + "{'name':'Deploy','fromDurationMillis':100,'toDurationMillis':null,'fromStatus':'SUCCESS','toStatus':null}"
+                + "]}");
+        assertEquals(expected, get("stage-metrics/diff?from=1&to=2"));
+    }
+
+    @Test
+    public void diffOfMissingBuildIsNotFound() throws Exception {
+        int status = jenkins.createWebClient()
+                .withThrowExceptionOnFailingStatusCode(false)
+                .goTo(job.getUrl() + "stage-metrics/diff?from=1&to=99", null)
+                .getWebResponse().getStatusCode();
+        assertEquals(404, status);
+    }
+
+    @Test
+    public void trendReportsDurationsAndStatistics() throws Exception {
+        // Force the summaries to be read back from the builds
+        StageSummaryCache.get().invalidateJob("p");
+
+        JsonNode expected = MAPPER.readTree("{'job':'p','builds':[1,2,3],'partial':false,'pendingBuilds':[],'stages':["
+                + "{'name':'Build','durationsMillis':[500,800,600],'statuses':['SUCCESS','SUCCESS','SUCCESS'],"
+                + "'count':3,'minMillis':500,'maxMillis':800,'meanMillis':633},"
+                + "{'name':'Test','durationsMillis':[250,200,300],'statuses':['SUCCESS','FAILURE','SUCCESS'],"
+                + "'count':3,'minMillis':200,'maxMillis':300,'meanMillis':250},"
+                + "{'name':'Test (2)','durationsMillis':[null,30,null],'statuses':[null,'SUCCESS',null],"
+                + "'count':1,'minMillis':30,'maxMillis':30,'meanMillis':30},"
+                + "{'name':'Deploy','durationsMillis':[100,null,null],'statuses':['SUCCESS',null,null],"
+                + "'count':1,'minMillis':100,'maxMillis':100,'meanMillis':100}"
+                + "]}");
+        assertEquals(expected, get("stage-metrics/trend?builds=10"));
+        for (int number = 1; number <= 3; number++) {
+            assertNotNull(StageSummaryCache.get().getIfPresent("p", number));
+        }
+    }
+
+    @Test
+    public void trendWindowCoversLatestBuilds() throws Exception {
+        JsonNode trend = get("stage-metrics/trend?builds=2");
+        assertEquals(MAPPER.readTree("[2,3]"), trend.get("builds"));
+        assertEquals("Build", trend.get("stages").get(0).get("name").asText());
+        assertEquals(MAPPER.readTree("[800,600]"), trend.get("stages").get(0).get("durationsMillis"));
+    }
+
+    @Test
+    public void getAllSkipsBuildsWithoutMetrics() {
+        StageSummaryCache.get().invalidateJob("p");
+        StageSummaryCache.Window window = StageSummaryCache.get().getAll(job, Arrays.asList(3, 1, 42));
+        assertEquals(Arrays.asList(1, 3), new ArrayList<>(window.summaries.keySet()));
+        assertFalse(window.isPartial());
+    }
+
+    @Test
+    public void deletingJobDropsCachedSummaries() throws Exception {
+        assertNotNull(StageSummaryCache.get().getIfPresent("p", 1));
+        job.delete();
+        for (int number = 1; number <= 3; number++) {
+            assertNull(StageSummaryCache.get().getIfPresent("p", number));
+        }
+    }
+
+    @Test
+    public void renamingJobDropsCachedSummaries() throws Exception {
+        job.renameTo("q");
+        for (int number = 1; number <= 3; number++) {
+            assertNull(StageSummaryCache.get().getIfPresent("p", number));
+        }
+        JsonNode diff = get("stage-metrics/diff?from=1&to=3");
+        assertEquals("q", diff.get("job").asText());
+        assertEquals(100L, diff.get("stages").get(0).get("deltaMillis").asLong());
+    }
+
+    private JsonNode get(String path) throws Exception {
+        return MAPPER.readTree(jenkins.createWebClient()
+                .goTo(job.getUrl() + path, "application/json")
+                .getWebResponse().getContentAsString());
+    }
+}
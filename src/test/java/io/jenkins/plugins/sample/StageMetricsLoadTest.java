@@ -0,0 +1,334 @@
+package io.jenkins.plugins.sample;
+
+import hudson.model.listeners.RunListener;
+import hudson.model.queue.QueueTaskFuture;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestExtension;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Load scenarios against {@link StubReportingEndpoint}: many concurrent synthetic pipelines of
+ * varying size, reporting throughput, completion latency, thread counts and heap usage.
+ *
+ * These take minutes, so they only run when {@code -DstageMetrics.loadTest=true} is given, e.g.
+ * {@code mvn test -Dtest=StageMetricsLoadTest -DstageMetrics.loadTest=true}.
+ */
+public class StageMetricsLoadTest {
+
+    private static final int PIPELINES = Integer.getInteger("stageMetrics.loadTest.pipelines", 40);
+    private static final int MAX_STAGES = Integer.getInteger("stageMetrics.loadTest.maxStages", 20);
+
+    @Rule
+    public JenkinsRule jenkins = new JenkinsRule();
+
+    {
+        jenkins.timeout = (int) TimeUnit.MINUTES.toSeconds(30);
+    }
+
+    private StubReportingEndpoint endpoint;
+
+    /**
+     * Checked before any rule runs, so a default build does not boot Jenkins just to skip these.
+     */
+    @BeforeClass
+    public static void enabled() {
+        Assume.assumeTrue("Load tests are disabled; pass -DstageMetrics.loadTest=true", Boolean.getBoolean("stageMetrics.loadTest"));
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        endpoint = new StubReportingEndpoint();
+        StageMetricsRunListenerTest.configure(endpoint.getUrl());
+    }
+
+    @After
+    public void tearDown() {
+        if (endpoint != null) {
+            endpoint.close();
+        }
+    }
+
+    @Test
+    public void throughputWithHealthyEndpoint() throws Exception {
+        Result result = runScenario("healthy", "h", PIPELINES);
+        result.print();
+        assertEquals("every report should be delivered", result.expected, result.delivered);
+        assertEquals("every stage should reach the endpoint", result.expectedStages, result.received);
+        assertEquals("no report should be delivered twice", 0, result.duplicates);
+    }
+
+    /**
+     * A slow endpoint used to spawn one delivery thread per stage. Delivery threads must stay
+     * within the pool size however many reports are queued, and build completion must not wait
+     * on the endpoint.
+     *
+     * Completion latency is compared with a run that has no endpoint configured, where the
+     * listener still walks the flow graph and records the summary but nothing is sent, so the
+     * figures separate the listener's own cost from the cost of delivery.
+     */
+    @Test
+    public void slowEndpointDoesNotExplodeThreads() throws Exception {
+        StageMetricsRunListenerTest.configure(null);
+        Result noEndpoint = runScenario("no endpoint", "n", PIPELINES);
+        noEndpoint.print();
+        assertEquals(0, noEndpoint.delivered);
+        assertEquals(0, noEndpoint.endpointRequests);
+
+        StageMetricsRunListenerTest.configure(endpoint.getUrl());
+        Result baseline = runScenario("baseline", "b", PIPELINES);
+        baseline.print();
+        baseline.printOverhead(noEndpoint);
+
+        endpoint.withLatency(500);
+        Result slow = runScenario("slow endpoint (500ms)", "s", PIPELINES);
+        slow.print();
+        slow.printOverhead(noEndpoint);
+        slow.printOverhead(baseline);
+
+        assertTrue("delivery threads " + slow.peakDeliveryThreads + " exceed pool size " + StageMetricsDelivery.POOL_SIZE,
+                slow.peakDeliveryThreads <= StageMetricsDelivery.POOL_SIZE);
+        assertTrue("concurrent requests " + endpoint.getMaxInFlight() + " exceed pool size",
+                endpoint.getMaxInFlight() <= StageMetricsDelivery.POOL_SIZE);
+        assertEquals(slow.expected, slow.delivered);
+        assertEquals("no report should be delivered twice", 0, slow.duplicates);
+    }
+
+    /**
+     * Intermittent 503s should be absorbed by retries; whatever is still lost must show up in
+     * the delivery counters rather than vanish.
+     */
+    @Test
+    public void flakyEndpointAccountsForEveryReport() throws Exception {
+        endpoint.withErrorRate(0.2);
+        Result result = runScenario("flaky endpoint (20% 503)", "f", PIPELINES);
+        result.print();
+        assertEquals("every report must be delivered or counted as lost", result.expected, result.delivered + result.lost());
+    }
+
+    /**
+     * During an outage the breaker should stop traffic instead of hammering the endpoint, and
+     * delivery should resume once the endpoint is back and the breaker has probed it.
+     */
+    @Test
+    public void outageIsContainedAndRecovers() throws Exception {
+        endpoint.setOutage(true);
+        Result outage = runScenario("outage", "o", PIPELINES);
+        outage.print();
+        assertEquals(outage.expected, outage.delivered + outage.lost());
+        assertTrue("endpoint saw " + outage.endpointRequests + " requests for " + outage.expected + " reports",
+                outage.endpointRequests < outage.expected);
+
+        endpoint.setOutage(false);
+        Thread.sleep(StageMetricsDelivery.BREAKER_OPEN_MILLIS);
+        Result recovered = runScenario("after outage", "r", Math.max(1, PIPELINES / 4));
+        recovered.print();
+        assertEquals(DeliveryCircuitBreaker.State.CLOSED, StageMetricsDelivery.get().breakerState());
+        // Reports submitted while the half-open probe is in flight are short-circuited; everything else arrives
+        assertEquals(recovered.expected, recovered.delivered + recovered.shortCircuited);
+    }
+
+    private Result runScenario(String name, String jobPrefix, int pipelines) throws Exception {
+        List<WorkflowJob> jobs = new ArrayList<>();
+        for (int i = 0; i < pipelines; i++) {
+            WorkflowJob job = jenkins.createProject(WorkflowJob.class, jobPrefix + "-" + i);
+            job.setDefinition(new CpsFlowDefinition(script(1 + (i * 7) % MAX_STAGES), true));
+            jobs.add(job);
+        }
+
+        StageMetricsDelivery delivery = StageMetricsDelivery.get();
+        long delivered = delivery.delivered();
+        long failed = delivery.failed() + delivery.clientErrors() + delivery.notConfigured() + delivery.shortCircuited() + delivery.dropped();
+        long shortCircuited = delivery.shortCircuited();
+        long requests = endpoint.getRequests();
+        long errors = endpoint.getErrors();
+        int received = endpoint.getReceivedCount();
+        int duplicates = endpoint.getDuplicateCount();
+
+        Sampler sampler = new Sampler();
+        sampler.start();
+        long started = System.nanoTime();
+
+        List<QueueTaskFuture<WorkflowRun>> futures = new ArrayList<>();
+        for (WorkflowJob job : jobs) {
+            futures.add(job.scheduleBuild2(0));
+        }
+        List<WorkflowRun> runs = new ArrayList<>();
+        for (QueueTaskFuture<WorkflowRun> future : futures) {
+            runs.add(jenkins.assertBuildStatusSuccess(future));
+        }
+        long buildsDone = System.nanoTime();
+
+        StageMetricsRunListenerTest.await(() -> delivery.pending() == 0, TimeUnit.MINUTES.toSeconds(10));
+        long drained = System.nanoTime();
+        sampler.stop();
+
+        Result result = new Result(name);
+        long[] completion = new long[runs.size()];
+        for (int i = 0; i < runs.size(); i++) {
+            WorkflowRun run = runs.get(i);
+            Long finalized = CompletionRecorder.FINALIZED_AT.get(run.getExternalizableId());
+            completion[i] = (finalized != null ? finalized : run.getStartTimeInMillis() + run.getDuration()) - run.getStartTimeInMillis();
+            StageMetricsAction action = run.getAction(StageMetricsAction.class);
+            StageMetricsSummary summary = action != null ? action.getSummary() : null;
+            if (summary != null) {
+                result.expected += summary.size();
+                result.expectedStages += new HashSet<>(Arrays.asList(summary.names())).size();
+            }
+        }
+        Arrays.sort(completion);
+        result.pipelines = runs.size();
+        result.buildMillis = TimeUnit.NANOSECONDS.toMillis(buildsDone - started);
+        result.drainMillis = TimeUnit.NANOSECONDS.toMillis(drained - buildsDone);
+        result.meanCompletionMillis = completion.length > 0 ? Arrays.stream(completion).sum() / completion.length : 0;
+        result.p95CompletionMillis = completion.length > 0 ? completion[(int) Math.min(completion.length - 1, Math.ceil(completion.length * 0.95) - 1)] : 0;
+        result.received = endpoint.getReceivedCount() - received;
+        result.delivered = delivery.delivered() - delivered;
+        result.notDelivered = delivery.failed() + delivery.clientErrors() + delivery.notConfigured() + delivery.shortCircuited() + delivery.dropped() - failed;
+        result.shortCircuited = delivery.shortCircuited() - shortCircuited;
+        result.endpointRequests = endpoint.getRequests() - requests;
+        result.endpointErrors = endpoint.getErrors() - errors;
+        result.duplicates = endpoint.getDuplicateCount() - duplicates;
+        result.peakThreads = sampler.peakThreads;
+        result.peakDeliveryThreads = sampler.peakDeliveryThreads;
+        result.peakHeapBytes = sampler.peakHeapBytes;
+        result.breaker = delivery.describe();
+        return result;
+    }
+
+    /**
+     * Completion is taken at {@code onFinalized}, after every {@code onCompleted} listener
+     * (including ours) has run, so listener overhead shows up in the latency figures.
+     */
+    @TestExtension
+    public static class CompletionRecorder extends RunListener<WorkflowRun> {
+        static final Map<String, Long> FINALIZED_AT = new ConcurrentHashMap<>();
+
+        @Override
+        public void onFinalized(WorkflowRun run) {
+            FINALIZED_AT.put(run.getExternalizableId(), System.currentTimeMillis());
+        }
+    }
+
+    private static String script(int stages) {
+        StringBuilder sb = new StringBuilder("withEnv(['BUILD_TOOL=maven']) {\n");
+        for (int i = 0; i < stages; i++) {
+            sb.append("  stage('Stage ").append(i).append("') { echo 'stage ").append(i)
+                    .append("'; sleep time: 10, unit: 'MILLISECONDS' }\n");
+        }
+        return sb.append("}\n").toString();
+    }
+
+    /**
+     * Samples JVM thread count, delivery pool threads and heap use in the background.
+     */
+    private static final class Sampler implements Runnable {
+        private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        private final AtomicBoolean running = new AtomicBoolean(true);
+        private final Thread thread = new Thread(this, "StageMetricsLoadTest sampler");
+
+        volatile int peakThreads;
+        volatile int peakDeliveryThreads;
+        volatile long peakHeapBytes;
+
+        void start() {
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        void stop() throws InterruptedException {
+            running.set(false);
+            thread.join();
+        }
+
+        @Override
+        public void run() {
+            while (running.get()) {
+                peakThreads = Math.max(peakThreads, threads.getThreadCount());
+                int delivery = 0;
+                for (Thread t : Thread.getAllStackTraces().keySet()) {
+                    if (t.getName().startsWith("StageMetricsDelivery")) {
+                        delivery++;
+                    }
+                }
+                peakDeliveryThreads = Math.max(peakDeliveryThreads, delivery);
+                peakHeapBytes = Math.max(peakHeapBytes, memory.getHeapMemoryUsage().getUsed());
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private static final class Result {
+        final String name;
+        int pipelines;
+        long expected;
+        long expectedStages;
+        long received;
+        long delivered;
+        long notDelivered;
+        long shortCircuited;
+        long endpointRequests;
+        long endpointErrors;
+        long duplicates;
+        long buildMillis;
+        long drainMillis;
+        long meanCompletionMillis;
+        long p95CompletionMillis;
+        int peakThreads;
+        int peakDeliveryThreads;
+        long peakHeapBytes;
+        String breaker;
+
+        Result(String name) {
+            this.name = name;
+        }
+
+        long lost() {
+            return notDelivered;
+        }
+
+        void print() {
+            double seconds = Math.max(1, buildMillis + drainMillis) / 1000.0;
+            System.out.printf("[load] %s: %d pipelines, %d reports expected, %d delivered, %d lost; %d of %d stages received%n",
+                    name, pipelines, expected, delivered, notDelivered, received, expectedStages);
+            System.out.printf("[load]   builds %d ms + drain %d ms, %.1f reports/s, %d endpoint requests (%d errors, %d duplicates)%n",
+                    buildMillis, drainMillis, received / seconds, endpointRequests, endpointErrors, duplicates);
+            System.out.printf("[load]   completion latency mean %d ms, p95 %d ms%n", meanCompletionMillis, p95CompletionMillis);
+            System.out.printf("[load]   peak threads %d (delivery %d), peak heap %d MB%n",
+                    peakThreads, peakDeliveryThreads, peakHeapBytes / (1024 * 1024));
+            System.out.printf("[load]   %s%n", breaker.replace("\n", "\n[load]   "));
+        }
+
+        void printOverhead(Result base) {
+            System.out.printf("[load] %s completion latency vs %s: mean %+d ms, p95 %+d ms%n", name, base.name,
+                    meanCompletionMillis - base.meanCompletionMillis, p95CompletionMillis - base.p95CompletionMillis);
+        }
+    }
+}
@@ -1,17 +1,126 @@
 package io.jenkins.plugins.sample;
 
+import hudson.util.Secret;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.After;
+import org.junit.Before;
 import org.junit.Test;
 import org.junit.Rule;
 import org.jvnet.hudson.test.JenkinsRule;
 
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
 public class StageMetricsRunListenerTest {
 
+    static final String PIPELINE =
+            "withEnv(['BUILD_TOOL=maven']) {\n" +
+            "  stage('Build') { echo 'building' }\n" +
+            "  stage('Test') { withEnv(['BUILD_TOOL=gradle']) { echo 'testing' } }\n" +
+            "  stage('Deploy') { echo 'deploying' }\n" +
+            "}\n";
+
     @Rule
     public JenkinsRule jenkins = new JenkinsRule();
 
+    private StubReportingEndpoint endpoint;
+
+    @Before
+    public void startEndpoint() throws Exception {
+        endpoint = new StubReportingEndpoint();
+        configure(endpoint.getUrl());
+    }
+
+    @After
+    public void stopEndpoint() {
+        endpoint.close();
+    }
+
     @Test
-    public void testBasicFunctionality() throws Exception {
-        // Add basic tests for your plugin
+    public void sendsOneReportPerStage() throws Exception {
+        WorkflowJob job = jenkins.createProject(WorkflowJob.class, "p");
+        job.setDefinition(new CpsFlowDefinition(PIPELINE, true));
+        WorkflowRun run = jenkins.buildAndAssertSuccess(job);
+
+        await(() -> endpoint.hasStage("p", run.getId(), "Build")
+                && endpoint.hasStage("p", run.getId(), "Test")
+                && endpoint.hasStage("p", run.getId(), "Deploy"), 30);
+    }
+
+    @Test
+    public void recordsSummaryOnRun() throws Exception {
+        WorkflowJob job = jenkins.createProject(WorkflowJob.class, "p");
+        job.setDefinition(new CpsFlowDefinition(PIPELINE, true));
+        WorkflowRun run = jenkins.buildAndAssertSuccess(job);
+
+        StageMetricsAction action = run.getAction(StageMetricsAction.class);
+        assertNotNull(action);
+        StageMetricsSummary summary = action.getSummary();
+        assertNotNull(summary);
+        assertEquals("maven", summary.getBuildTool());
+        assertTrue(summary.indexOf("Build") >= 0);
+        assertTrue(summary.indexOf("Deploy") >= 0);
+        assertEquals("SUCCESS", summary.statuses()[summary.indexOf("Test")]);
+
+        JSONObject api = JSONObject.fromObject(jenkins.createWebClient()
+                .goTo(run.getUrl() + "stage-metrics/api/json", "application/json")
+                .getWebResponse().getContentAsString());
+        assertTrue(api.getJSONArray("stages").size() >= 3);
+    }
+
+    /**
+     * Summaries recorded by the listener are what the job-level endpoints compare; the exact
+     * output of those endpoints is covered by {@link StageMetricsJobActionTest}.
+     */
+    @Test
+    public void recordedSummariesFeedJobDiff() throws Exception {
+        WorkflowJob job = jenkins.createProject(WorkflowJob.class, "p");
+        job.setDefinition(new CpsFlowDefinition(PIPELINE, true));
+        for (WorkflowRun run : Arrays.asList(jenkins.buildAndAssertSuccess(job), jenkins.buildAndAssertSuccess(job))) {
+            StageMetricsAction action = run.getAction(StageMetricsAction.class);
+            assertNotNull(action);
+            assertNotNull(action.getSummary());
+        }
+
+        JSONObject diff = JSONObject.fromObject(jenkins.createWebClient()
+                .goTo(job.getUrl() + "stage-metrics/diff?from=1&to=2", "application/json")
+                .getWebResponse().getContentAsString());
+        Set<String> names = new HashSet<>();
+        JSONArray stages = diff.getJSONArray("stages");
+        for (int i = 0; i < stages.size(); i++) {
+            names.add(stages.getJSONObject(i).getString("name"));
+        }
+        assertEquals(new HashSet<>(Arrays.asList("Build", "Test", "Deploy")), names);
+        assertEquals(3, stages.size());
+    }
+
+    static void configure(String endpointUrl) {
+        StageMetricsConfiguration config = StageMetricsConfiguration.get();
+        config.setEndpointUrl(endpointUrl);
+        config.setUsername("user");
+        config.setPassword(Secret.fromString("pass"));
+        config.setControllerName("test-controller");
+        config.save();
+    }
 
+    static void await(BooleanSupplier condition, long timeoutSeconds) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeoutSeconds);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                throw new AssertionError("Condition not met within " + timeoutSeconds + "s");
+            }
+            Thread.sleep(50);
+        }
     }
 }
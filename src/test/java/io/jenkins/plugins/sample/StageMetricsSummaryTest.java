@@ -0,0 +1,59 @@
+package io.jenkins.plugins.sample;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class StageMetricsSummaryTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void ordersStagesByStartTimeAndRoundTrips() throws Exception {
+        List<Map<String, Object>> stageData = new ArrayList<>();
+        stageData.add(stage("Test", 2000L, 300L, "FAILURE", null));
+        stageData.add(stage("Build", 1000L, 500L, "SUCCESS", "maven"));
+
+        StageMetricsSummary summary = StageMetricsSummary.fromStageData("gradle", stageData);
+        assertEquals("Build", summary.getStages().get(0).getName());
+        assertEquals("Test", summary.getStages().get(1).getName());
+
+        File file = new File(tmp.getRoot(), StageMetricsSummary.FILE_NAME);
+        summary.write(file);
+        StageMetricsSummary read = StageMetricsSummary.read(file);
+
+        assertEquals("gradle", read.getBuildTool());
+        assertEquals(2, read.size());
+        StageMetricsSummary.Stage build = read.getStages().get(0);
+        assertEquals("Build", build.getName());
+        assertEquals(1000L, build.getStartTimeMillis());
+        assertEquals(500L, build.getDurationMillis());
+        assertEquals("SUCCESS", build.getStatus());
+        assertEquals("maven", build.getBuildTool());
+        StageMetricsSummary.Stage test = read.getStages().get(1);
+        assertEquals("FAILURE", test.getStatus());
+        assertNull(test.getBuildTool());
+    }
+
+    private static Map<String, Object> stage(String name, long start, long duration, String status, String buildTool) {
+        Map<String, Object> stage = new HashMap<>();
+        stage.put("name", name);
+        stage.put("startTimeMillis", start);
+        stage.put("durationMillis", duration);
+        stage.put("status", status);
+        if (buildTool != null) {
+            stage.put("stageBuildTool", buildTool);
+        }
+        return stage;
+    }
+}
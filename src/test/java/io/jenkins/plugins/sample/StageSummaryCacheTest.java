@@ -0,0 +1,102 @@
+package io.jenkins.plugins.sample;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class StageSummaryCacheTest {
+
+    @Test
+    public void evictsLeastRecentlyUsedByStageCount() {
+        StageSummaryCache cache = new StageSummaryCache(5);
+        cache.put("job", 1, summary(2));
+        cache.put("job", 2, summary(2));
+        // Touch #1 so #2 becomes the eldest
+        assertNotNull(cache.getIfPresent("job", 1));
+
+        cache.put("job", 3, summary(2));
+        assertNull(cache.getIfPresent("job", 2));
+        assertNotNull(cache.getIfPresent("job", 1));
+        assertNotNull(cache.getIfPresent("job", 3));
+        assertEquals(4, cache.totalStages());
+    }
+
+    @Test
+    public void keepsOversizedNewestEntry() {
+        StageSummaryCache cache = new StageSummaryCache(3);
+        cache.put("job", 1, summary(1));
+        cache.put("job", 2, summary(10));
+        assertEquals(1, cache.size());
+        assertNotNull(cache.getIfPresent("job", 2));
+    }
+
+    @Test
+    public void invalidateReleasesWeight() {
+        StageSummaryCache cache = new StageSummaryCache(10);
+        cache.put("job", 1, summary(3));
+        cache.put("job", 1, summary(4));
+        assertEquals(4, cache.totalStages());
+        cache.invalidate("job", 1);
+        assertEquals(0, cache.totalStages());
+        assertNull(cache.getIfPresent("job", 1));
+    }
+
+    @Test
+    public void invalidateJobDropsItsBuildsAndNestedJobs() {
+        StageSummaryCache cache = new StageSummaryCache(100);
+        cache.put("folder/job", 1, summary(1));
+        cache.put("folder/job", 2, summary(2));
+        cache.put("folder/jobber", 1, summary(3));
+        cache.put("folder", 1, summary(4));
+        cache.put("other/job", 1, summary(5));
+
+        cache.invalidateJob("folder/job");
+        assertNull(cache.getIfPresent("folder/job", 1));
+        assertNull(cache.getIfPresent("folder/job", 2));
+        assertNotNull(cache.getIfPresent("folder/jobber", 1));
+        assertEquals(12, cache.totalStages());
+
+        cache.invalidateJob("folder");
+        assertNull(cache.getIfPresent("folder/jobber", 1));
+        assertNull(cache.getIfPresent("folder", 1));
+        assertNotNull(cache.getIfPresent("other/job", 1));
+        assertEquals(5, cache.totalStages());
+    }
+
+    @Test
+    public void indexesStagesByName() {
+        StageMetricsSummary summary = summary(3);
+        assertEquals(2, summary.indexOf("stage-2"));
+        assertEquals(-1, summary.indexOf("missing"));
+    }
+
+    @Test
+    public void repeatedStageNamesGetOccurrenceSuffix() {
+        StageMetricsSummary summary = new StageMetricsSummary(null,
+                new String[]{"Test", "Build", "Test", "Test"},
+                new long[]{0L, 1L, 2L, 3L},
+                new long[]{10L, 20L, 30L, 40L},
+                new String[]{"SUCCESS", "SUCCESS", "FAILURE", "SUCCESS"},
+                new String[4]);
+        assertArrayEquals(new String[]{"Test", "Build", "Test (2)", "Test (3)"}, summary.keys());
+        assertEquals(0, summary.indexOf("Test"));
+        assertEquals(2, summary.indexOf("Test (2)"));
+        assertEquals(3, summary.indexOf("Test (3)"));
+        assertEquals(-1, summary.indexOf("Test (4)"));
+    }
+
+    private static StageMetricsSummary summary(int stages) {
+        String[] names = new String[stages];
+        long[] times = new long[stages];
+        String[] statuses = new String[stages];
+        for (int i = 0; i < stages; i++) {
+            names[i] = "stage-" + i;
+            times[i] = i;
+            statuses[i] = "SUCCESS";
+        }
+        return new StageMetricsSummary(null, names, times, times.clone(), statuses, new String[stages]);
+    }
+}
@@ -0,0 +1,181 @@
+package io.jenkins.plugins.sample;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local stand-in for the {@code /rest/v1.0/objects} reporting endpoint.
+ *
+ * Latency, error rate and outages can be changed while tests run. Every accepted payload is
+ * recorded by {@code jobName/runId/stage} so tests can check which stage metrics arrived.
+ */
+class StubReportingEndpoint implements AutoCloseable {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    private volatile long latencyMillis;
+    private volatile double errorRate;
+    private volatile boolean outage;
+    private volatile int forcedStatus;
+    private final AtomicInteger failuresLeft = new AtomicInteger();
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private final Set<String> received = ConcurrentHashMap.newKeySet();
+    private final Map<String, AtomicInteger> duplicates = new ConcurrentHashMap<>();
+
+    StubReportingEndpoint() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/rest/v1.0/objects", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    String getUrl() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+    }
+
+    StubReportingEndpoint withLatency(long millis) {
+        this.latencyMillis = millis;
+        return this;
+    }
+
+    StubReportingEndpoint withErrorRate(double rate) {
+        this.errorRate = rate;
+        return this;
+    }
+
+    /**
+     * Answers every request with the given status instead of accepting it; {@code 0} restores normal behaviour.
+     */
+    StubReportingEndpoint withStatus(int status) {
+        this.forcedStatus = status;
+        return this;
+    }
+
+    /**
+     * Answers the next {@code count} requests with 503.
+     */
+    void failNext(int count) {
+        failuresLeft.set(count);
+    }
+
+    void setOutage(boolean outage) {
+        this.outage = outage;
+    }
+
+    long getRequests() {
+        return requests.get();
+    }
+
+    long getErrors() {
+        return errors.get();
+    }
+
+    int getMaxInFlight() {
+        return maxInFlight.get();
+    }
+
+    int getReceivedCount() {
+        return received.size();
+    }
+
+    int getDuplicateCount() {
+        return duplicates.values().stream().mapToInt(AtomicInteger::get).sum();
+    }
+
+    boolean hasStage(String jobName, String runId, String stageName) {
+        return received.contains(key(jobName, runId, stageName));
+    }
+
+    private static String key(Object jobName, Object runId, Object stageName) {
+        return jobName + "/" + runId + "/" + stageName;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        int current = inFlight.incrementAndGet();
+        maxInFlight.accumulateAndGet(current, Math::max);
+        try (InputStream in = exchange.getRequestBody()) {
+            in.readAllBytes();
+            if (latencyMillis > 0) {
+                TimeUnit.MILLISECONDS.sleep(latencyMillis);
+            }
+            int status = forcedStatus;
+            if (status != 0) {
+                if (status >= 400) {
+                    errors.incrementAndGet();
+                }
+                respond(exchange, status);
+                return;
+            }
+            if (outage || failuresLeft.getAndUpdate(n -> Math.max(0, n - 1)) > 0
+                    || (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate)) {
+                errors.incrementAndGet();
+                respond(exchange, 503);
+                return;
+            }
+            Map<?, ?> payload = MAPPER.readValue(payloadParameter(exchange.getRequestURI().getRawQuery()), Map.class);
+            String key = key(payload.get("jobName"), payload.get("runId"), payload.get("name"));
+            if (!received.add(key)) {
+                duplicates.computeIfAbsent(key, k -> new AtomicInteger()).incrementAndGet();
+            }
+            respond(exchange, 200);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            respond(exchange, 503);
+        } catch (JsonProcessingException | RuntimeException e) {
+            respond(exchange, 400);
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    private static String payloadParameter(String rawQuery) {
+        if (rawQuery != null) {
+            for (String param : rawQuery.split("&")) {
+                if (param.startsWith("payload=")) {
+                    return URLDecoder.decode(param.substring("payload=".length()), StandardCharsets.UTF_8);
+                }
+            }
+        }
+        throw new IllegalArgumentException("No payload parameter");
+    }
+
+    private static void respond(HttpExchange exchange, int code) throws IOException {
+        byte[] body = "{}".getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(code, body.length);
+        exchange.getResponseBody().write(body);
+        exchange.close();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}